@@ -0,0 +1,86 @@
+package com.github.steveice10.mc.auth.util;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding request bodies into a pooled {@link RequestBody} with building them as strings and byte arrays,
+ * the way they were encoded before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBodyBenchmark {
+    private final Gson gson = new Gson();
+    private Map<String, Object> json;
+    private Map<String, String> form;
+
+    @Setup
+    public void setup() {
+        // Shaped like an Xbox Live user authentication request and a Microsoft token refresh
+        var token = this.randomToken(new Random(45), 1200);
+
+        var properties = new LinkedHashMap<String, Object>();
+        properties.put("AuthMethod", "RPS");
+        properties.put("SiteName", "user.auth.xboxlive.com");
+        properties.put("RpsTicket", "d=" + token);
+        this.json = new LinkedHashMap<>();
+        this.json.put("Properties", properties);
+        this.json.put("RelyingParty", "http://auth.xboxlive.com");
+        this.json.put("TokenType", "JWT");
+
+        this.form = new LinkedHashMap<>();
+        this.form.put("client_id", "00000000402b5328");
+        this.form.put("scope", "service::user.auth.xboxlive.com::MBI_SSL");
+        this.form.put("grant_type", "refresh_token");
+        this.form.put("redirect_uri", "https://login.live.com/oauth20_desktop.srf");
+        this.form.put("refresh_token", token);
+    }
+
+    private String randomToken(Random random, int length) {
+        var alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789!*$-_";
+        var token = new StringBuilder(length);
+        for (int i = 0; i < length; i++) token.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return token.toString();
+    }
+
+    @Benchmark
+    public byte[] jsonString() {
+        return this.gson.toJson(this.json).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int jsonRequestBody() {
+        try (var body = RequestBody.acquire()) {
+            return body.writeJson(this.gson, this.json).getLength();
+        }
+    }
+
+    @Benchmark
+    public byte[] formString() throws UnsupportedEncodingException {
+        var inputString = new StringBuilder();
+        for (var inputField : this.form.entrySet()) {
+            if (inputString.length() > 0) inputString.append("&");
+            inputString.append(String.format("%s=%s", URLEncoder.encode(inputField.getKey(), StandardCharsets.UTF_8.toString()), URLEncoder.encode(inputField.getValue(), StandardCharsets.UTF_8.toString())));
+        }
+        return inputString.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int formRequestBody() {
+        try (var body = RequestBody.acquire()) {
+            return body.writeForm(this.form).getLength();
+        }
+    }
+}
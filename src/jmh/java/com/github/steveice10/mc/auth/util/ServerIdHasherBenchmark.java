@@ -0,0 +1,57 @@
+package com.github.steveice10.mc.auth.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link ServerIdHasher} with computing the server ID from scratch for every connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerIdHasherBenchmark {
+    private static final String SERVER_ID = "";
+
+    private PublicKey publicKey;
+    private SecretKey secretKey;
+    private ServerIdHasher hasher;
+
+    @Setup
+    public void setup() throws NoSuchAlgorithmException {
+        var generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        this.publicKey = generator.generateKeyPair().getPublic();
+
+        var secret = new byte[16];
+        new Random(36).nextBytes(secret);
+        this.secretKey = new SecretKeySpec(secret, "AES");
+        this.hasher = new ServerIdHasher(this.publicKey);
+    }
+
+    @Benchmark
+    public String fromScratch() throws NoSuchAlgorithmException {
+        var digest = MessageDigest.getInstance("SHA-1");
+        digest.update(SERVER_ID.getBytes(StandardCharsets.ISO_8859_1));
+        digest.update(this.secretKey.getEncoded());
+        digest.update(this.publicKey.getEncoded());
+        return new BigInteger(digest.digest()).toString(16);
+    }
+
+    @Benchmark
+    public String hasher() {
+        return this.hasher.getServerId(SERVER_ID, this.secretKey);
+    }
+}
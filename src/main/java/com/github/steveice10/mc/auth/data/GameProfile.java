@@ -3,6 +3,7 @@ package com.github.steveice10.mc.auth.data;
 import com.github.steveice10.mc.auth.exception.property.ProfileTextureException;
 import com.github.steveice10.mc.auth.exception.property.PropertyException;
 import com.github.steveice10.mc.auth.exception.property.SignatureValidateException;
+import com.github.steveice10.mc.auth.jfr.SignatureVerificationEvent;
 import com.github.steveice10.mc.auth.service.SessionService;
 import com.github.steveice10.mc.auth.util.Base64;
 import com.github.steveice10.mc.auth.util.UUIDSerializer;
@@ -299,13 +300,23 @@ public class GameProfile {
         public boolean isSignatureValid(PublicKey key) throws SignatureValidateException {
             if (!this.hasSignature()) return false;
 
+            var event = new SignatureVerificationEvent();
+            event.begin();
             try {
                 var sig = Signature.getInstance("SHA1withRSA");
                 sig.initVerify(key);
-                sig.update(this.value.getBytes());
-                return sig.verify(Base64.decode(this.signature.getBytes(StandardCharsets.UTF_8)));
+                var value = this.value.getBytes();
+                sig.update(value);
+                event.size = value.length;
+                return event.valid = sig.verify(Base64.decode(this.signature.getBytes(StandardCharsets.UTF_8)));
             } catch (Exception e) {
+                event.error = e.getClass().getName();
                 throw new SignatureValidateException("Could not validate property signature.", e);
+            } finally {
+                if (event.shouldCommit()) {
+                    event.property = this.name;
+                    event.commit();
+                }
             }
         }
 
@@ -0,0 +1,128 @@
+package com.github.steveice10.mc.auth.data;
+
+import com.github.steveice10.mc.auth.util.JwtToken;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the state of an authentication session.
+ * <p>
+ * Services replace their session as a whole, so a snapshot obtained from a service always has an access token,
+ * profiles and properties that belong together, even while the service is logging in again on another thread.
+ */
+@Getter
+public class Session {
+    /**
+     * A session that is not logged in and has no access token.
+     */
+    public static final Session LOGGED_OUT = new Session(null, null, null, null, null, null, false);
+
+    private final String accessToken;
+    private final GameProfile selectedProfile;
+    private final List<GameProfile> profiles;
+    private final List<GameProfile.Property> properties;
+    /**
+     * When the access token expires, or null if unknown.
+     */
+    private final Instant expiresAt;
+    /**
+     * ID of the user the session belongs to, or null if the service does not report one.
+     */
+    private final String userId;
+    private final boolean loggedIn;
+
+    private Session(String accessToken, GameProfile selectedProfile, List<GameProfile> profiles, List<GameProfile.Property> properties, Instant expiresAt, String userId, boolean loggedIn) {
+        this.accessToken = accessToken;
+        this.selectedProfile = selectedProfile;
+        this.profiles = profiles != null ? Collections.unmodifiableList(new ArrayList<>(profiles)) : Collections.emptyList();
+        this.properties = properties != null ? Collections.unmodifiableList(new ArrayList<>(properties)) : Collections.emptyList();
+        this.expiresAt = expiresAt;
+        this.userId = userId;
+        this.loggedIn = loggedIn;
+    }
+
+    /**
+     * Creates a logged in session.
+     * <p>
+     * The expiry is read from the access token if it is a JWT, and otherwise derived from the given lifetime.
+     *
+     * @param accessToken     Access token of the session.
+     * @param selectedProfile Selected profile, or null if none is selected yet.
+     * @param profiles        Profiles available to the user.
+     * @param properties      Properties of the user.
+     * @param expiresIn       Lifetime of the access token as reported by the server, or null if unknown.
+     * @return The new session.
+     */
+    public static Session loggedIn(String accessToken, GameProfile selectedProfile, List<GameProfile> profiles, List<GameProfile.Property> properties, Duration expiresIn) {
+        return loggedIn(accessToken, selectedProfile, profiles, properties, expiresIn, null);
+    }
+
+    /**
+     * Creates a logged in session of a user with a known ID.
+     *
+     * @param accessToken     Access token of the session.
+     * @param selectedProfile Selected profile, or null if none is selected yet.
+     * @param profiles        Profiles available to the user.
+     * @param properties      Properties of the user.
+     * @param expiresIn       Lifetime of the access token as reported by the server, or null if unknown.
+     * @param userId          ID of the user, or null if unknown.
+     * @return The new session.
+     * @see #loggedIn(String, GameProfile, List, List, Duration)
+     */
+    public static Session loggedIn(String accessToken, GameProfile selectedProfile, List<GameProfile> profiles, List<GameProfile.Property> properties, Duration expiresIn, String userId) {
+        var claims = JwtToken.parse(accessToken);
+        var expiresAt = claims != null && claims.getExpiresAt() != null ? claims.getExpiresAt()
+                : expiresIn != null ? Instant.now().plus(expiresIn) : null;
+        return new Session(accessToken, selectedProfile, profiles, properties, expiresAt, userId, true);
+    }
+
+    /**
+     * Creates a copy of this session with a different access token, keeping everything else.
+     *
+     * @param accessToken Access token to use.
+     * @return The new session.
+     */
+    public Session withAccessToken(String accessToken) {
+        var claims = JwtToken.parse(accessToken);
+        return new Session(accessToken, this.selectedProfile, this.profiles, this.properties, claims != null ? claims.getExpiresAt() : null, this.userId, this.loggedIn);
+    }
+
+    /**
+     * Creates a copy of this session with a different access token and selected profile, keeping everything else.
+     *
+     * @param accessToken     Access token to use.
+     * @param selectedProfile Profile to select.
+     * @return The new session.
+     */
+    public Session withSelectedProfile(String accessToken, GameProfile selectedProfile) {
+        return this.withAccessToken(accessToken).withSelectedProfile(selectedProfile);
+    }
+
+    private Session withSelectedProfile(GameProfile selectedProfile) {
+        return new Session(this.accessToken, selectedProfile, this.profiles, this.properties, this.expiresAt, this.userId, this.loggedIn);
+    }
+
+    /**
+     * Gets whether the access token will still be valid after the given margin has passed.
+     *
+     * @param margin Time the token must remain valid for.
+     * @return False if there is no token, it expires within the margin, or its expiry is unknown.
+     */
+    public boolean isAccessTokenValidFor(Duration margin) {
+        return this.accessToken != null && this.expiresAt != null && Instant.now().plus(margin).isBefore(this.expiresAt);
+    }
+
+    @Override
+    public String toString() {
+        return "Session{loggedIn=" + this.loggedIn
+                + ", selectedProfile=" + this.selectedProfile
+                + ", profiles=" + this.profiles
+                + ", expiresAt=" + this.expiresAt
+                + "}";
+    }
+}
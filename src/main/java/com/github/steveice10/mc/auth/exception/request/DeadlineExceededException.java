@@ -0,0 +1,25 @@
+package com.github.steveice10.mc.auth.exception.request;
+
+import lombok.NoArgsConstructor;
+
+import java.io.Serial;
+
+/**
+ * Thrown when an operation runs out of the time its caller gave it.
+ */
+@NoArgsConstructor
+public class DeadlineExceededException extends RequestException {
+    @Serial private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public DeadlineExceededException(Throwable cause) {
+        super(cause);
+    }
+}
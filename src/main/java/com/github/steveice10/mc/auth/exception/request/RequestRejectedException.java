@@ -0,0 +1,25 @@
+package com.github.steveice10.mc.auth.exception.request;
+
+import lombok.NoArgsConstructor;
+
+import java.io.Serial;
+
+/**
+ * Thrown when a request is rejected locally before being sent, because it could not be admitted in time.
+ */
+@NoArgsConstructor
+public class RequestRejectedException extends RequestException {
+    @Serial private static final long serialVersionUID = 1L;
+
+    public RequestRejectedException(String message) {
+        super(message);
+    }
+
+    public RequestRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public RequestRejectedException(Throwable cause) {
+        super(cause);
+    }
+}
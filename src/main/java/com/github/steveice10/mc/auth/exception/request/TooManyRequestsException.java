@@ -0,0 +1,25 @@
+package com.github.steveice10.mc.auth.exception.request;
+
+import lombok.NoArgsConstructor;
+
+import java.io.Serial;
+
+/**
+ * Thrown when a service responds that too many requests have been made (HTTP 429).
+ */
+@NoArgsConstructor
+public class TooManyRequestsException extends ServiceUnavailableException {
+    @Serial private static final long serialVersionUID = 1L;
+
+    public TooManyRequestsException(String message) {
+        super(message);
+    }
+
+    public TooManyRequestsException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public TooManyRequestsException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.steveice10.mc.auth.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a single HTTP request, from sending it to reading its response.
+ */
+@Name("com.github.steveice10.mc.auth.HttpRequest")
+@Label("HTTP Request")
+@Category({"MCAuthLib", "HTTP"})
+@Description("An HTTP request made by the auth library")
+@StackTrace(false)
+public class HttpRequestEvent extends jdk.jfr.Event {
+    @Label("Endpoint")
+    @Description("Host and path of the request, with IDs replaced by {id}")
+    public String endpoint;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Status")
+    @Description("HTTP status of the response, or -1 if no response was received")
+    public int status;
+
+    @Label("Bytes Sent")
+    @DataAmount
+    public long bytesSent;
+
+    @Label("Bytes Received")
+    @Description("Size of the response body before decompression")
+    @DataAmount
+    public long bytesReceived;
+
+    @Label("Error")
+    @Description("Type of the exception the request failed with, if any")
+    public String error;
+}
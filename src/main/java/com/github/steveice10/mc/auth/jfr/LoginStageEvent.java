@@ -0,0 +1,41 @@
+package com.github.steveice10.mc.auth.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for a stage of a login, such as the Xbox Live or Minecraft login request.
+ */
+@Name("com.github.steveice10.mc.auth.LoginStage")
+@Label("Login Stage")
+@Category({"MCAuthLib", "Login"})
+@Description("A stage of an authentication service's login")
+public class LoginStageEvent extends jdk.jfr.Event {
+    @Label("Service")
+    public Class<?> service;
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("Error")
+    @Description("Type of the exception the stage failed with, if any")
+    public String error;
+
+    /**
+     * Commits this event if it is enabled and exceeds its threshold.
+     *
+     * @param service Service running the login.
+     * @param stage   Name of the stage.
+     * @param error   The error the stage failed with, or null if it succeeded.
+     */
+    public void commit(Class<?> service, String stage, Throwable error) {
+        if (!this.shouldCommit()) return;
+
+        this.service = service;
+        this.stage = stage;
+        this.error = error != null ? error.getClass().getName() : null;
+        this.commit();
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.steveice10.mc.auth.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for a service operation, which may be made of several HTTP requests and retries, such as a
+ * hasJoined check, a profile properties lookup, or a page of a bulk profile lookup.
+ */
+@Name("com.github.steveice10.mc.auth.ServiceOperation")
+@Label("Service Operation")
+@Category({"MCAuthLib", "Service"})
+@Description("An operation of an auth service, spanning all of its requests")
+public class ServiceOperationEvent extends jdk.jfr.Event {
+    public static final String HAS_JOINED = "hasJoined";
+    public static final String FILL_PROFILE_PROPERTIES = "fillProfileProperties";
+    public static final String FIND_PROFILES_PAGE = "findProfilesByName page";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Endpoint")
+    @Description("URI of the endpoint the operation talks to")
+    public String endpoint;
+
+    @Label("Items")
+    @Description("Number of profiles or names the operation covers")
+    public int items;
+
+    @Label("Error")
+    @Description("Type of the exception the operation failed with, if any")
+    public String error;
+
+    /**
+     * Commits this event if it is enabled and exceeds its threshold.
+     *
+     * @param endpoint URI of the endpoint.
+     * @param items    Number of items covered.
+     * @param error    The error the operation failed with, or null if it succeeded.
+     */
+    public void commit(String endpoint, int items, Throwable error) {
+        if (!this.shouldCommit()) return;
+
+        this.endpoint = endpoint;
+        this.items = items;
+        this.error = error != null ? error.getClass().getName() : null;
+        this.commit();
+    }
+}
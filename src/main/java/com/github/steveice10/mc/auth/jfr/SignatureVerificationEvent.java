@@ -0,0 +1,29 @@
+package com.github.steveice10.mc.auth.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for the verification of a signed profile property.
+ */
+@Name("com.github.steveice10.mc.auth.SignatureVerification")
+@Label("Signature Verification")
+@Category({"MCAuthLib", "Crypto"})
+@StackTrace(false)
+public class SignatureVerificationEvent extends jdk.jfr.Event {
+    @Label("Property")
+    public String property;
+
+    @Label("Value Size")
+    @DataAmount
+    public int size;
+
+    @Label("Valid")
+    public boolean valid;
+
+    @Label("Error")
+    public String error;
+}
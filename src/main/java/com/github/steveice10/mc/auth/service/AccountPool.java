@@ -0,0 +1,358 @@
+package com.github.steveice10.mc.auth.service;
+
+import com.github.steveice10.mc.auth.exception.request.RequestException;
+import com.github.steveice10.mc.auth.util.MSALApplicationOptions;
+import com.github.steveice10.mc.auth.util.RateLimiter;
+import com.microsoft.aad.msal4j.DeviceCode;
+import com.microsoft.aad.msal4j.PublicClientApplication;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Manages many accounts at once, logging them in concurrently and handing out ready sessions on demand.
+ * <p>
+ * All Microsoft accounts in the pool share a single MSAL {@link PublicClientApplication} (and therefore a single token
+ * store), and every account uses the same proxy. Logins run on a fixed number of worker threads and are additionally
+ * held to a rate budget, so adding thousands of accounts will not flood the authentication servers.
+ */
+public class AccountPool implements AutoCloseable {
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final RateLimiter rateLimiter;
+    /**
+     * Logins handed out that have not completed yet, so that closing the pool can fail them.
+     */
+    private final Set<CompletableFuture<AuthenticationService>> pendingLogins = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    @Getter private final String clientId;
+    @Getter private final Set<String> scopes;
+    @Getter private final PublicClientApplication app;
+    @Getter private final Proxy proxy;
+    private final Consumer<DeviceCode> deviceCodeConsumer;
+    private final LoginStageListener loginStageListener;
+
+    private AccountPool(Builder builder) throws MalformedURLException {
+        this.clientId = builder.clientId;
+        this.scopes = builder.msalOptions != null ? builder.msalOptions.scopes : MSALApplicationOptions.DEFAULT_SCOPES;
+        this.app = builder.app != null ? builder.app : createApplication(builder.clientId, builder.msalOptions);
+        this.proxy = builder.proxy;
+        this.deviceCodeConsumer = builder.deviceCodeConsumer;
+        this.loginStageListener = builder.loginStageListener;
+        this.rateLimiter = builder.loginsPerSecond > 0 ? new RateLimiter(builder.loginsPerSecond, builder.concurrency) : null;
+
+        var threadId = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(builder.concurrency, runnable -> {
+            var thread = new Thread(runnable, "AccountPoolLoginThread-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static PublicClientApplication createApplication(String clientId, MSALApplicationOptions options) throws MalformedURLException {
+        var builder = PublicClientApplication.builder(clientId).authority(options.authority);
+        if (options.tokenPersistence != null)
+            builder.setTokenCacheAccessAspect(options.tokenPersistence);
+        return builder.build();
+    }
+
+    private static String key(String username) {
+        if (username == null || username.isEmpty()) throw new IllegalArgumentException("Username cannot be null or empty.");
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds a Microsoft account that logs in using the Device Code flow (or silently, if MSAL has cached tokens for it).
+     *
+     * @param username Username of the account.
+     * @return The service backing the account.
+     */
+    public MsaAuthenticationService addMsaAccount(String username) {
+        return this.addMsaAccount(username, null);
+    }
+
+    /**
+     * Adds a Microsoft account. If a password is given, it will be used instead of the Device Code flow.
+     *
+     * @param username Username of the account.
+     * @param password Password of the account, or null to use the Device Code flow.
+     * @return The service backing the account.
+     */
+    public MsaAuthenticationService addMsaAccount(String username, String password) {
+        var service = new MsaAuthenticationService(this.clientId, this.scopes, this.app);
+        if (this.deviceCodeConsumer != null)
+            service.setDeviceCodeConsumer(this.deviceCodeConsumer);
+        service.setUsername(username);
+        service.setPassword(password);
+        return this.addAccount(service);
+    }
+
+    /**
+     * Adds a Mojang account.
+     *
+     * @param username Username of the account.
+     * @param password Password of the account.
+     * @return The service backing the account.
+     */
+    public MojangAuthenticationService addMojangAccount(String username, String password) {
+        var service = new MojangAuthenticationService();
+        service.setUsername(username);
+        service.setPassword(password);
+        return this.addAccount(service);
+    }
+
+    /**
+     * Adds an already configured account to the pool. The pool's proxy and login stage listener will be applied to it.
+     *
+     * @param service Service of the account. Its username is used as the account key.
+     * @param <T>     Type of the service.
+     * @return The given service.
+     * @throws IllegalStateException If an account with the same username is already in the pool.
+     */
+    public <T extends AuthenticationService> T addAccount(@NonNull T service) {
+        service.setProxy(this.proxy);
+        if (this.loginStageListener != null)
+            service.addLoginStageListener(this.loginStageListener);
+        if (this.accounts.putIfAbsent(key(service.getUsername()), new Account(service)) != null)
+            throw new IllegalStateException("Account '" + service.getUsername() + "' is already in the pool.");
+        return service;
+    }
+
+    /**
+     * Removes an account from the pool. Logins already in progress for the account are left to finish.
+     *
+     * @param username Username of the account to remove.
+     * @return The service of the removed account, or null if it was not in the pool.
+     */
+    public AuthenticationService removeAccount(String username) {
+        var account = this.accounts.remove(key(username));
+        return account != null ? account.service : null;
+    }
+
+    /**
+     * Gets the service of an account in the pool, regardless of whether it is logged in.
+     *
+     * @param username Username of the account.
+     * @return The account's service, or null if it is not in the pool.
+     */
+    public AuthenticationService getAccount(String username) {
+        var account = this.accounts.get(key(username));
+        return account != null ? account.service : null;
+    }
+
+    /**
+     * Gets the services of all accounts in the pool.
+     *
+     * @return An immutable snapshot of the pool's accounts.
+     */
+    public Collection<AuthenticationService> getAccounts() {
+        var services = new ArrayList<AuthenticationService>(this.accounts.size());
+        for (var account : this.accounts.values()) services.add(account.service);
+        return Collections.unmodifiableList(services);
+    }
+
+    /**
+     * Gets the number of accounts in the pool.
+     *
+     * @return The number of accounts.
+     */
+    public int size() {
+        return this.accounts.size();
+    }
+
+    /**
+     * Gets a logged in session for an account, logging it in first if needed.
+     * <p>
+     * Concurrent calls for the same account share a single login.
+     *
+     * @param username Username of the account.
+     * @return A future completing with the logged in service, or exceptionally with the {@link RequestException} that made the login fail.
+     * It completes exceptionally with a {@link CancellationException} if the pool is closed before the login finishes.
+     * @throws IllegalArgumentException If the account is not in the pool.
+     * @throws IllegalStateException    If the pool is closed.
+     */
+    public CompletableFuture<AuthenticationService> acquire(String username) {
+        var account = this.accounts.get(key(username));
+        if (account == null) throw new IllegalArgumentException("Account '" + username + "' is not in the pool.");
+        return account.login();
+    }
+
+    /**
+     * Logs in every account in the pool that is not already logged in.
+     *
+     * @return A future completing once every login has finished. It completes exceptionally if any login failed, or
+     * if the pool is closed first.
+     * @throws IllegalStateException If the pool is closed.
+     */
+    public CompletableFuture<Void> loginAll() {
+        var logins = new ArrayList<CompletableFuture<AuthenticationService>>(this.accounts.size());
+        for (var account : this.accounts.values()) logins.add(account.login());
+        return CompletableFuture.allOf(logins.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Stops the pool's login threads. Logins that have not finished yet complete exceptionally with a
+     * {@link CancellationException}, and the pool no longer accepts logins.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.executor.shutdownNow();
+
+        // The tasks shutdownNow returns do not lead back to their futures, so fail the futures directly
+        var cancellation = new CancellationException("Account pool was closed.");
+        for (var login : this.pendingLogins) login.completeExceptionally(cancellation);
+        this.pendingLogins.clear();
+    }
+
+    private CompletableFuture<AuthenticationService> track(CompletableFuture<AuthenticationService> login) {
+        this.pendingLogins.add(login);
+        login.whenComplete((service, error) -> this.pendingLogins.remove(login));
+        // A close that ran while the login was being created has missed it
+        if (this.closed) login.completeExceptionally(new CancellationException("Account pool was closed."));
+        return login;
+    }
+
+    @Override
+    public String toString() {
+        return "AccountPool{clientId=" + this.clientId + ", accounts=" + this.accounts.size() + ", rateLimiter=" + this.rateLimiter + "}";
+    }
+
+    private class Account {
+        private final AuthenticationService service;
+        private CompletableFuture<AuthenticationService> pending;
+
+        private Account(AuthenticationService service) {
+            this.service = service;
+        }
+
+        private synchronized CompletableFuture<AuthenticationService> login() {
+            if (closed) throw new IllegalStateException("Account pool is closed.");
+            if (this.service.isLoggedIn()) return CompletableFuture.completedFuture(this.service);
+            if (this.pending != null && !this.pending.isDone()) return this.pending;
+
+            try {
+                if (this.service instanceof MsaAuthenticationService msa) {
+                    // Don't hold a login thread while MSAL waits for the user to enter a device code
+                    return this.pending = track(CompletableFuture.runAsync(this::awaitRateLimit, executor)
+                            .thenCompose(v -> msa.loginAsync(executor, null))
+                            .thenApply(v -> this.service));
+                }
+
+                return this.pending = track(CompletableFuture.supplyAsync(() -> {
+                    this.awaitRateLimit();
+                    try {
+                        this.service.login();
+                        return this.service;
+                    } catch (RequestException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            } catch (RejectedExecutionException e) {
+                throw new IllegalStateException("Account pool is closed.", e);
+            }
+        }
+
+        private void awaitRateLimit() {
+            if (rateLimiter == null) return;
+            try {
+                rateLimiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Login was interrupted.");
+            }
+        }
+    }
+
+    public static class Builder {
+        private final String clientId;
+        private MSALApplicationOptions msalOptions;
+        private PublicClientApplication app;
+        private Proxy proxy = Proxy.NO_PROXY;
+        private Consumer<DeviceCode> deviceCodeConsumer;
+        private LoginStageListener loginStageListener;
+        private int concurrency = 4;
+        private double loginsPerSecond = 0;
+
+        /**
+         * @param clientId Azure client ID shared by every Microsoft account in the pool.
+         */
+        public Builder(@NonNull String clientId) {
+            this.clientId = clientId;
+        }
+
+        /**
+         * Set the MSAL options used to create the shared {@link PublicClientApplication}. The options' token
+         * persistence becomes the token store of every Microsoft account in the pool.
+         */
+        public Builder msalOptions(@NonNull MSALApplicationOptions msalOptions) {
+            this.msalOptions = msalOptions;
+            return this;
+        }
+
+        /**
+         * Set a pre-configured {@link PublicClientApplication} to share instead of creating one from the MSAL options.
+         * It must be configured with the same client ID as the pool.
+         */
+        public Builder app(PublicClientApplication app) {
+            this.app = app;
+            return this;
+        }
+
+        /**
+         * Set the proxy used by every account in the pool. Null will be converted to NO_PROXY.
+         */
+        public Builder proxy(Proxy proxy) {
+            this.proxy = Objects.requireNonNullElse(proxy, Proxy.NO_PROXY);
+            return this;
+        }
+
+        /**
+         * Set the function called when a Microsoft account needs the user to complete a Device Code flow.
+         */
+        public Builder deviceCodeConsumer(Consumer<DeviceCode> deviceCodeConsumer) {
+            this.deviceCodeConsumer = deviceCodeConsumer;
+            return this;
+        }
+
+        /**
+         * Set a listener added to every account in the pool, such as a shared {@link LoginStageStatistics}.
+         */
+        public Builder loginStageListener(LoginStageListener loginStageListener) {
+            this.loginStageListener = loginStageListener;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of logins that may run at the same time.
+         */
+        public Builder concurrency(int concurrency) {
+            if (concurrency <= 0) throw new IllegalArgumentException("Concurrency must be positive.");
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of logins started per second. Zero or less disables the rate budget.
+         */
+        public Builder loginsPerSecond(double loginsPerSecond) {
+            this.loginsPerSecond = loginsPerSecond;
+            return this;
+        }
+
+        public AccountPool build() throws IOException {
+            // Default options create a token persistence that reads from disk, so only build them when needed
+            if (this.msalOptions == null && this.app == null)
+                this.msalOptions = new MSALApplicationOptions.Builder().build();
+            return new AccountPool(this);
+        }
+    }
+}
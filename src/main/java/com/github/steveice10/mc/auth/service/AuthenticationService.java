@@ -1,23 +1,45 @@
 package com.github.steveice10.mc.auth.service;
 
 import com.github.steveice10.mc.auth.data.GameProfile;
+import com.github.steveice10.mc.auth.data.Session;
+import com.github.steveice10.mc.auth.exception.request.DeadlineExceededException;
 import com.github.steveice10.mc.auth.exception.request.RequestException;
+import com.github.steveice10.mc.auth.jfr.LoginStageEvent;
+import com.github.steveice10.mc.auth.util.Deadline;
 import lombok.Getter;
 
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Service used for authenticating users.
+ * <p>
+ * The state of a login is held in an immutable {@link Session} that is replaced as a whole, so readers never block and
+ * always see an access token, profiles and properties that belong together. Logins, logouts and other changes to the
+ * session are serialized per service.
+ * <p>
+ * Subclasses implement {@link #performLogin(Session)}, which returns the complete new session, rather than overriding
+ * {@link #login()} and assigning the access token, profiles and properties one by one.
  */
 public abstract class AuthenticationService extends Service {
-    @Getter protected String accessToken, username, password;
-    @Getter protected GameProfile selectedProfile;
-    protected boolean loggedIn;
-    protected List<GameProfile.Property> properties = new ArrayList<>();
-    protected List<GameProfile> profiles = new ArrayList<>();
+    private static final Duration DEFAULT_TOKEN_EXPIRY_MARGIN = Duration.ofMinutes(5);
+
+    @Getter protected volatile String username, password;
+    /**
+     * Held while the session is being changed, so that only one login, logout or refresh runs at a time.
+     */
+    protected final ReentrantLock sessionLock = new ReentrantLock();
+    private volatile Session session = Session.LOGGED_OUT;
+    private final List<LoginStageListener> loginStageListeners = new CopyOnWriteArrayList<>();
+    /**
+     * How long the access token must remain valid for {@link #login()} to skip logging in again.
+     */
+    @Getter private Duration tokenExpiryMargin = DEFAULT_TOKEN_EXPIRY_MARGIN;
 
     public AuthenticationService() {
         this(URI.create(""));
@@ -27,15 +49,50 @@ public abstract class AuthenticationService extends Service {
         super(defaultURI);
     }
 
+    /**
+     * Gets a consistent snapshot of the current session.
+     *
+     * @return The current session.
+     */
+    public Session getSession() {
+        return this.session;
+    }
+
+    /**
+     * Replaces the current session. Callers must hold the session lock.
+     *
+     * @param session Session to use.
+     */
+    protected void setSession(Session session) {
+        if (!this.sessionLock.isHeldByCurrentThread())
+            throw new IllegalStateException("Session lock must be held to change the session.");
+        this.session = session;
+    }
+
+    /**
+     * Gets the access token of the service.
+     *
+     * @return The current access token.
+     */
+    public String getAccessToken() {
+        return this.session.getAccessToken();
+    }
+
     /**
      * Sets the access token of the service.
      *
      * @param accessToken Access token to set.
      */
     public void setAccessToken(String accessToken) {
-        if (this.loggedIn && this.selectedProfile != null)
-            throw new IllegalStateException("Cannot change access token while user is logged in and profile is selected.");
-        else this.accessToken = accessToken;
+        this.sessionLock.lock();
+        try {
+            var session = this.session;
+            if (session.isLoggedIn() && session.getSelectedProfile() != null)
+                throw new IllegalStateException("Cannot change access token while user is logged in and profile is selected.");
+            else this.setSession(session.withAccessToken(accessToken));
+        } finally {
+            this.sessionLock.unlock();
+        }
     }
 
     /**
@@ -44,7 +101,48 @@ public abstract class AuthenticationService extends Service {
      * @return Whether the service is logged in.
      */
     public boolean isLoggedIn() {
-        return this.loggedIn;
+        return this.session.isLoggedIn();
+    }
+
+    /**
+     * Gets the selected profile of the user logged in with the service.
+     *
+     * @return The selected profile, or null if none is selected.
+     */
+    public GameProfile getSelectedProfile() {
+        return this.session.getSelectedProfile();
+    }
+
+    /**
+     * Gets when the current access token expires. This is read locally from the token itself when it is a JWT, or
+     * otherwise taken from the lifetime reported by the server at login.
+     *
+     * @return The expiry of the access token, or null if there is no token or its expiry cannot be determined.
+     */
+    public Instant getAccessTokenExpiry() {
+        return this.session.getExpiresAt();
+    }
+
+    /**
+     * Gets whether the current access token will still be valid for at least the token expiry margin.
+     * This never makes a request.
+     *
+     * @return Whether the access token is still valid. False if its expiry cannot be determined.
+     */
+    public boolean isAccessTokenValid() {
+        return this.session.isAccessTokenValidFor(this.tokenExpiryMargin);
+    }
+
+    /**
+     * Sets how long the access token must remain valid for {@link #login()} to keep using it instead of logging in again.
+     *
+     * @param tokenExpiryMargin Safety margin to use.
+     */
+    @SuppressWarnings("unused")
+    public void setTokenExpiryMargin(Duration tokenExpiryMargin) {
+        if (tokenExpiryMargin == null || tokenExpiryMargin.isNegative())
+            throw new IllegalArgumentException("Token expiry margin cannot be null or negative.");
+        this.tokenExpiryMargin = tokenExpiryMargin;
     }
 
     /**
@@ -53,7 +151,7 @@ public abstract class AuthenticationService extends Service {
      * @param username Username to set.
      */
     public void setUsername(String username) {
-        if (this.loggedIn && this.selectedProfile != null)
+        if (this.isLoggedIn() && this.getSelectedProfile() != null)
             throw new IllegalStateException("Cannot change username while user is logged in and profile is selected.");
         else this.username = username;
     }
@@ -64,7 +162,7 @@ public abstract class AuthenticationService extends Service {
      * @param password Password to set.
      */
     public void setPassword(String password) {
-        if (this.loggedIn && this.selectedProfile != null)
+        if (this.isLoggedIn() && this.getSelectedProfile() != null)
             throw new IllegalStateException("Cannot change password while user is logged in and profile is selected.");
         else this.password = password;
     }
@@ -75,7 +173,7 @@ public abstract class AuthenticationService extends Service {
      * @return The user's properties.
      */
     public List<GameProfile.Property> getProperties() {
-        return Collections.unmodifiableList(this.properties);
+        return this.session.getProperties();
     }
 
     /**
@@ -84,16 +182,145 @@ public abstract class AuthenticationService extends Service {
      * @return The user's available profiles.
      */
     public List<GameProfile> getAvailableProfiles() {
-        return Collections.unmodifiableList(this.profiles);
+        return this.session.getProfiles();
+    }
+
+    /**
+     * Adds a listener to be notified of the timing and outcome of each stage of this service's logins.
+     *
+     * @param listener Listener to add.
+     */
+    public void addLoginStageListener(LoginStageListener listener) {
+        if (listener == null) throw new IllegalArgumentException("Listener cannot be null.");
+        this.loginStageListeners.add(listener);
+    }
+
+    /**
+     * Removes a previously added login stage listener.
+     *
+     * @param listener Listener to remove.
+     */
+    @SuppressWarnings("unused")
+    public void removeLoginStageListener(LoginStageListener listener) {
+        this.loginStageListeners.remove(listener);
+    }
+
+    /**
+     * Runs a stage of the login process, reporting its duration and outcome to the login stage listeners.
+     *
+     * @param stage Stage being run.
+     * @param call  Work of the stage.
+     * @param <T>   Result type of the stage.
+     * @param <E>   Exception type thrown by the stage.
+     * @return The result of the stage.
+     * @throws E If the stage fails.
+     */
+    protected <T, E extends Exception> T runStage(LoginStage stage, StageCall<T, E> call) throws E {
+        var event = new LoginStageEvent();
+        if (this.loginStageListeners.isEmpty() && !event.isEnabled()) return call.call();
+
+        event.begin();
+        var start = System.nanoTime();
+        Throwable error = null;
+        try {
+            return call.call();
+        } catch (Exception | Error e) {
+            error = e;
+            throw e;
+        } finally {
+            event.commit(this.getClass(), stage.name(), error);
+            if (!this.loginStageListeners.isEmpty()) this.reportStage(stage, System.nanoTime() - start, error);
+        }
+    }
+
+    /**
+     * Reports a stage that was not run through {@link #runStage(LoginStage, StageCall)}, such as one that completes
+     * asynchronously, to the login stage listeners.
+     *
+     * @param stage         Stage that completed.
+     * @param durationNanos How long the stage took, in nanoseconds.
+     * @param error         The error the stage failed with, or null if it succeeded.
+     */
+    protected void reportStage(LoginStage stage, long durationNanos, Throwable error) {
+        for (var listener : this.loginStageListeners) listener.onStageCompleted(this, stage, durationNanos, error);
     }
 
     /**
      * Logs the service in.
      * The current access token will be used if set. Otherwise, password-based authentication will be used.
+     * If the service is already logged in and its access token is still valid for the token expiry margin, this
+     * returns immediately without making any request.
+     * <p>
+     * Concurrent calls are serialized; a call that had to wait for another login usually finds a valid session and
+     * returns right away.
+     *
+     * @throws RequestException If an error occurs while making the request.
+     */
+    public void login() throws RequestException {
+        this.lockSession();
+        try {
+            // Nothing to do while the current session is still good
+            if (this.isLoggedIn() && this.isAccessTokenValid())
+                return;
+
+            this.setSession(this.performLogin(this.session));
+        } finally {
+            this.sessionLock.unlock();
+        }
+    }
+
+    /**
+     * Logs the service in, see {@link #login()}, failing if that takes longer than the given timeout.
+     * <p>
+     * The timeout covers the whole login: waiting for another login to finish, and every request of every stage,
+     * each of which gets only the time that is left.
+     *
+     * @param timeout How long the login may take, or null to only use the timeouts of the individual requests.
+     * @throws DeadlineExceededException If the login did not finish within the timeout.
+     * @throws RequestException          If an error occurs while making the request.
+     */
+    public void login(Duration timeout) throws RequestException {
+        if (timeout == null) {
+            this.login();
+            return;
+        }
+
+        Deadline.after(timeout).run(() -> {
+            this.login();
+            return null;
+        });
+    }
+
+    /**
+     * Acquires the session lock, giving up once the current {@link Deadline}, if any, has passed.
+     *
+     * @throws DeadlineExceededException If the deadline passed while waiting.
+     * @throws RequestException          If the thread was interrupted while waiting.
+     */
+    protected void lockSession() throws RequestException {
+        var deadline = Deadline.current();
+        if (deadline == null) {
+            this.sessionLock.lock();
+            return;
+        }
+
+        try {
+            if (!this.sessionLock.tryLock(deadline.getRemaining().toNanos(), TimeUnit.NANOSECONDS))
+                throw new DeadlineExceededException("Deadline exceeded while waiting for another login to finish.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException("Interrupted while waiting for another login to finish.", e);
+        }
+    }
+
+    /**
+     * Performs the requests of a login. Called with the session lock held.
      *
+     * @param current The current session, holding the access token to reuse (if any).
+     * @return The new session.
      * @throws RequestException If an error occurs while making the request.
      */
-    public abstract void login() throws RequestException;
+    protected abstract Session performLogin(Session current) throws RequestException;
 
     /**
      * Logs the service out.
@@ -101,12 +328,30 @@ public abstract class AuthenticationService extends Service {
      * @throws RequestException If an error occurs while making the request.
      */
     public void logout() throws RequestException {
-        if (!this.loggedIn) throw new IllegalStateException("Cannot log out while not logged in.");
+        this.sessionLock.lock();
+        try {
+            if (!this.isLoggedIn()) throw new IllegalStateException("Cannot log out while not logged in.");
+            this.performLogout(this.session);
+            this.setSession(Session.LOGGED_OUT);
+        } finally {
+            this.sessionLock.unlock();
+        }
+    }
 
-        this.accessToken = null;
-        this.loggedIn = false;
-        this.properties.clear();
-        this.profiles.clear();
-        this.selectedProfile = null;
+    /**
+     * Performs the requests of a logout, if any. Called with the session lock held, before the session is cleared.
+     *
+     * @param current The session being logged out.
+     * @throws RequestException If an error occurs while making the request.
+     */
+    protected void performLogout(Session current) throws RequestException {
+    }
+
+    /**
+     * The work of a single {@link LoginStage}.
+     */
+    @FunctionalInterface
+    protected interface StageCall<T, E extends Exception> {
+        T call() throws E;
     }
 }
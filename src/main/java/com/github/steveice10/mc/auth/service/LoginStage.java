@@ -0,0 +1,43 @@
+package com.github.steveice10.mc.auth.service;
+
+/**
+ * A step of an {@link AuthenticationService} login, as reported to a {@link LoginStageListener}.
+ */
+public enum LoginStage {
+    /**
+     * Acquiring a Microsoft access token through MSAL (Device Code flow or silent refresh).
+     */
+    MSAL,
+    /**
+     * Scraping the Microsoft login page and submitting the user's credentials for an authorization code.
+     */
+    MSA_CREDENTIALS,
+    /**
+     * Exchanging an authorization code or refresh token for a Microsoft access token.
+     */
+    MSA_TOKEN,
+    /**
+     * Authenticating with Xbox Live (<code>user.auth.xboxlive.com</code>).
+     */
+    XBL,
+    /**
+     * Authorizing with the Xbox Secure Token Service (<code>xsts.auth.xboxlive.com</code>).
+     */
+    XSTS,
+    /**
+     * Logging in to Minecraft services with an XSTS token (<code>login_with_xbox</code>).
+     */
+    MC_LOGIN,
+    /**
+     * Fetching the Minecraft profile of a Microsoft account.
+     */
+    MC_PROFILE,
+    /**
+     * Authenticating a Mojang account with a username and password.
+     */
+    MOJANG_AUTHENTICATE,
+    /**
+     * Refreshing the access token of a Mojang account.
+     */
+    MOJANG_REFRESH
+}
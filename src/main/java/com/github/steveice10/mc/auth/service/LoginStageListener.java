@@ -0,0 +1,21 @@
+package com.github.steveice10.mc.auth.service;
+
+/**
+ * Receives timing and outcome events for each {@link LoginStage} of a login.
+ *
+ * @see AuthenticationService#addLoginStageListener(LoginStageListener)
+ */
+@FunctionalInterface
+public interface LoginStageListener {
+    /**
+     * Called when a login stage has finished, whether it succeeded or not.
+     * <p>
+     * This is called on the thread performing the login, so implementations should return quickly.
+     *
+     * @param service       Service performing the login.
+     * @param stage         Stage that finished.
+     * @param durationNanos Time spent in the stage, in nanoseconds.
+     * @param error         Exception that made the stage fail, or null if it succeeded.
+     */
+    void onStageCompleted(AuthenticationService service, LoginStage stage, long durationNanos, Throwable error);
+}
@@ -0,0 +1,74 @@
+package com.github.steveice10.mc.auth.service;
+
+import com.github.steveice10.mc.auth.util.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link LoginStageListener} that keeps latency histograms and failure counts for every {@link LoginStage}.
+ * <p>
+ * A single instance can be shared by any number of services, for example all accounts of an {@link AccountPool}.
+ */
+public class LoginStageStatistics implements LoginStageListener {
+    private final Map<LoginStage, LatencyHistogram> latencies = new EnumMap<>(LoginStage.class);
+    private final Map<LoginStage, LongAdder> failures = new EnumMap<>(LoginStage.class);
+
+    public LoginStageStatistics() {
+        // Populated up front so that lookups never have to synchronize
+        for (var stage : LoginStage.values()) {
+            this.latencies.put(stage, new LatencyHistogram());
+            this.failures.put(stage, new LongAdder());
+        }
+    }
+
+    @Override
+    public void onStageCompleted(AuthenticationService service, LoginStage stage, long durationNanos, Throwable error) {
+        this.latencies.get(stage).record(durationNanos);
+        if (error != null) this.failures.get(stage).increment();
+    }
+
+    /**
+     * Gets the latency histogram of a stage, including failed attempts.
+     *
+     * @param stage Stage to get the histogram of.
+     * @return The stage's histogram.
+     */
+    public LatencyHistogram getLatency(LoginStage stage) {
+        return this.latencies.get(stage);
+    }
+
+    /**
+     * Gets a latency percentile of a stage.
+     *
+     * @param stage      Stage to get the percentile of.
+     * @param percentile Percentile to get, between 0 and 100.
+     * @return The percentile in nanoseconds, or 0 if the stage has not run yet.
+     */
+    public long getPercentile(LoginStage stage, double percentile) {
+        return this.latencies.get(stage).getPercentile(percentile);
+    }
+
+    /**
+     * Gets the number of times a stage has failed.
+     *
+     * @param stage Stage to get the failure count of.
+     * @return The number of failures.
+     */
+    public long getFailureCount(LoginStage stage) {
+        return this.failures.get(stage).sum();
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder("LoginStageStatistics{");
+        for (var stage : LoginStage.values()) {
+            var latency = this.latencies.get(stage);
+            if (latency.getCount() == 0) continue;
+            if (builder.charAt(builder.length() - 1) != '{') builder.append(", ");
+            builder.append(stage).append('=').append(latency).append(" failures=").append(this.getFailureCount(stage));
+        }
+        return builder.append('}').toString();
+    }
+}
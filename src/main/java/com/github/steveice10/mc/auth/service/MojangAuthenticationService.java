@@ -1,9 +1,9 @@
 package com.github.steveice10.mc.auth.service;
 
 import com.github.steveice10.mc.auth.data.GameProfile;
+import com.github.steveice10.mc.auth.data.Session;
 import com.github.steveice10.mc.auth.exception.request.InvalidCredentialsException;
 import com.github.steveice10.mc.auth.exception.request.RequestException;
-import com.github.steveice10.mc.auth.util.HTTP;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -19,7 +19,6 @@ public class MojangAuthenticationService extends AuthenticationService {
     private static final String REFRESH_ENDPOINT = "refresh";
     private static final String INVALIDATE_ENDPOINT = "invalidate";
     @Getter private final String clientToken;
-    @Getter private String id;
 
     /**
      * Creates a new AuthenticationService instance.
@@ -44,42 +43,47 @@ public class MojangAuthenticationService extends AuthenticationService {
     }
 
     @Override
-    public void login() throws RequestException {
+    protected Session performLogin(Session current) throws RequestException {
         if (this.username == null || this.username.isEmpty())
             throw new InvalidCredentialsException("Invalid username.");
 
-        boolean token = this.accessToken != null && !this.accessToken.isEmpty();
+        var accessToken = current.getAccessToken();
+        boolean token = accessToken != null && !accessToken.isEmpty();
         boolean password = this.password != null && !this.password.isEmpty();
 
         if (!token && !password)
             throw new InvalidCredentialsException("Invalid password or access token.");
 
-        var response = HTTP.makeRequest(getProxy(),
+        var response = runStage(token ? LoginStage.MOJANG_REFRESH : LoginStage.MOJANG_AUTHENTICATE, () -> this.makeRequest(
                 token ? getEndpointUri(REFRESH_ENDPOINT) : getEndpointUri(AUTHENTICATE_ENDPOINT),
-                token ? new RefreshRequest(this.clientToken, this.accessToken, null) : new AuthenticationRequest(this.username, this.password, this.clientToken),
-                AuthenticateRefreshResponse.class);
+                token ? new RefreshRequest(this.clientToken, accessToken, null) : new AuthenticationRequest(this.username, this.password, this.clientToken),
+                AuthenticateRefreshResponse.class));
 
         if (response == null)
             throw new RequestException("Server returned invalid response.");
         else if (!response.clientToken.equals(this.clientToken))
             throw new RequestException("Server responded with incorrect client token.");
 
-        this.id = (response.user != null && response.user.id != null) ? response.user.id : this.username;
-
-        this.accessToken = response.accessToken;
-        this.profiles = response.availableProfiles != null ? Arrays.asList(response.availableProfiles) : Collections.emptyList();
-        this.selectedProfile = response.selectedProfile;
-        this.properties.clear();
-
-        if (response.user != null && response.user.properties != null) this.properties.addAll(response.user.properties);
+        return Session.loggedIn(response.accessToken,
+                response.selectedProfile,
+                response.availableProfiles != null ? Arrays.asList(response.availableProfiles) : null,
+                response.user != null ? response.user.properties : null,
+                null,
+                (response.user != null && response.user.id != null) ? response.user.id : this.username);
+    }
 
-        this.loggedIn = true;
+    @Override
+    protected void performLogout(Session current) throws RequestException {
+        this.makeRequest(getEndpointUri(INVALIDATE_ENDPOINT), new InvalidateRequest(this.clientToken, current.getAccessToken()));
     }
 
-    public void logout() throws RequestException {
-        HTTP.makeRequest(getProxy(), getEndpointUri(INVALIDATE_ENDPOINT), new InvalidateRequest(this.clientToken, this.accessToken));
-        super.logout();
-        this.id = null;
+    /**
+     * Gets the ID of the logged in user.
+     *
+     * @return The user's ID, or null if not logged in.
+     */
+    public String getId() {
+        return this.getSession().getUserId();
     }
 
     /**
@@ -90,25 +94,30 @@ public class MojangAuthenticationService extends AuthenticationService {
      */
     @SuppressWarnings("unused")
     public void selectGameProfile(GameProfile profile) throws RequestException {
-        if (!this.loggedIn)
-            throw new RequestException("Cannot change game profile while not logged in.");
-        else if (this.selectedProfile != null)
-            throw new RequestException("Cannot change game profile when it is already selected.");
-        else if (profile == null || !this.profiles.contains(profile))
-            throw new IllegalArgumentException("Invalid profile '" + profile + "'.");
-
-        var response = HTTP.makeRequest(getProxy(),
-                getEndpointUri(REFRESH_ENDPOINT),
-                new RefreshRequest(this.clientToken, this.accessToken, profile),
-                AuthenticateRefreshResponse.class);
-
-        if (response == null)
-            throw new RequestException("Server returned invalid response.");
-        else if (!response.clientToken.equals(this.clientToken))
-            throw new RequestException("Server responded with incorrect client token.");
-
-        this.accessToken = response.accessToken;
-        this.selectedProfile = response.selectedProfile;
+        this.sessionLock.lock();
+        try {
+            var session = this.getSession();
+            if (!session.isLoggedIn())
+                throw new RequestException("Cannot change game profile while not logged in.");
+            else if (session.getSelectedProfile() != null)
+                throw new RequestException("Cannot change game profile when it is already selected.");
+            else if (profile == null || !session.getProfiles().contains(profile))
+                throw new IllegalArgumentException("Invalid profile '" + profile + "'.");
+
+            var response = this.makeRequest(
+                    getEndpointUri(REFRESH_ENDPOINT),
+                    new RefreshRequest(this.clientToken, session.getAccessToken(), profile),
+                    AuthenticateRefreshResponse.class);
+
+            if (response == null)
+                throw new RequestException("Server returned invalid response.");
+            else if (!response.clientToken.equals(this.clientToken))
+                throw new RequestException("Server responded with incorrect client token.");
+
+            this.setSession(session.withSelectedProfile(response.accessToken, response.selectedProfile));
+        } finally {
+            this.sessionLock.unlock();
+        }
     }
 
     /**
@@ -118,22 +127,24 @@ public class MojangAuthenticationService extends AuthenticationService {
      */
     @SuppressWarnings("unused")
     public boolean msaMigrationCheck() throws RequestException {
-        if (!this.loggedIn)
+        var session = this.getSession();
+        if (!session.isLoggedIn())
             throw new RequestException("Cannot check migration eligibility while not logged in.");
         return Objects.requireNonNull(
-                HTTP.makeRequest(getProxy(), MSA_MIGRATION_CHECK_URI, null, MsaMigrationCheckResponse.class,
-                        Collections.singletonMap("Authorization", String.format("Bearer %s", this.accessToken)))).rollout;
+                this.makeRequest(MSA_MIGRATION_CHECK_URI, null, MsaMigrationCheckResponse.class,
+                        Collections.singletonMap("Authorization", String.format("Bearer %s", session.getAccessToken())))).rollout;
     }
 
     @Override
     public String toString() {
+        var session = this.getSession();
         return "MojangUserAuthentication{clientToken=" + this.clientToken
                 + ", username=" + this.username
-                + ", accessToken=" + this.accessToken
-                + ", loggedIn=" + this.loggedIn
-                + ", profiles=" + this.profiles
-                + ", selectedProfile=" + this.selectedProfile
-                + ", id=" + this.id
+                + ", accessToken=" + session.getAccessToken()
+                + ", loggedIn=" + session.isLoggedIn()
+                + ", profiles=" + session.getProfiles()
+                + ", selectedProfile=" + session.getSelectedProfile()
+                + ", id=" + this.getId()
                 + "}";
     }
 
@@ -1,27 +1,34 @@
 package com.github.steveice10.mc.auth.service;
 
 import com.github.steveice10.mc.auth.data.GameProfile;
+import com.github.steveice10.mc.auth.data.Session;
+import com.github.steveice10.mc.auth.exception.request.DeadlineExceededException;
 import com.github.steveice10.mc.auth.exception.request.InvalidCredentialsException;
 import com.github.steveice10.mc.auth.exception.request.RequestException;
 import com.github.steveice10.mc.auth.exception.request.ServiceUnavailableException;
 import com.github.steveice10.mc.auth.exception.request.XboxRequestException;
+import com.github.steveice10.mc.auth.jfr.LoginStageEvent;
+import com.github.steveice10.mc.auth.util.Deadline;
 import com.github.steveice10.mc.auth.util.HTTP;
+import com.github.steveice10.mc.auth.util.MSALAccountIndex;
 import com.github.steveice10.mc.auth.util.MSALApplicationOptions;
+import com.github.steveice10.mc.auth.util.RequestBody;
+import com.github.steveice10.mc.auth.util.RequestCall;
 import com.microsoft.aad.msal4j.*;
 import lombok.*;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URLDecoder;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
@@ -38,16 +45,44 @@ public class MsaAuthenticationService extends AuthenticationService {
     private static final URI XSTS_AUTH_ENDPOINT = URI.create("https://xsts.auth.xboxlive.com/xsts/authorize");
     private static final URI MC_LOGIN_ENDPOINT = URI.create("https://api.minecraftservices.com/authentication/login_with_xbox");
     private static final URI MC_PROFILE_ENDPOINT = URI.create("https://api.minecraftservices.com/minecraft/profile");
-    private static final Pattern PPFT_PATTERN = Pattern.compile("sFTTag:[ ]?'.*value=\"(.*)\"/>'");
+    private static final Pattern PPFT_PATTERN = Pattern.compile("sFTTag:[ ]?'[^'\\n]*?value=\"([^\"\\n]*)\"");
     private static final Pattern URL_POST_PATTERN = Pattern.compile("urlPost:[ ]?'(.+?(?='))");
+    /**
+     * The login page is normally well under 100k characters; anything far beyond that is not the page we expect.
+     */
+    private static final int MS_LOGIN_PAGE_MAX_CHARS = 4 * 1024 * 1024;
+    /**
+     * The PPFT tag and post URL are a few hundred characters long; this leaves plenty of room.
+     */
+    private static final int MS_LOGIN_FIELD_MAX_CHARS = 16 * 1024;
     private static final Pattern CODE_PATTERN = Pattern.compile("[?|&]code=([\\w.-]+)");
+    /**
+     * Cached Xbox Live tokens are considered expired this long before their <code>NotAfter</code> time, so that they
+     * do not run out halfway through a login.
+     */
+    private static final Duration XBOX_TOKEN_EXPIRY_MARGIN = Duration.ofMinutes(1);
+    /**
+     * Runs the blocking requests of logins started without an executor, keeping them off the common fork-join pool.
+     */
+    private static final ExecutorService LOGIN_EXECUTOR;
+
+    static {
+        var threadId = new AtomicInteger();
+        LOGIN_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "MsaLoginThread-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 
     private final Set<String> scopes;
     private final PublicClientApplication app;
+    private final MSALAccountIndex accountIndex;
 
     private String clientId;
-    @Getter @Setter private String refreshToken;
+    @Getter @Setter private volatile String refreshToken;
     private Consumer<DeviceCode> deviceCodeConsumer;
+    private volatile XboxToken xblToken, xstsToken;
 
     /**
      * Create a new {@link AuthenticationService} for Microsoft accounts using default options.
@@ -88,6 +123,7 @@ public class MsaAuthenticationService extends AuthenticationService {
         this.clientId = clientId;
         this.scopes = scopes;
         this.app = app;
+        this.accountIndex = MSALAccountIndex.of(app);
     }
 
     /**
@@ -116,33 +152,36 @@ public class MsaAuthenticationService extends AuthenticationService {
         this.deviceCodeConsumer = consumer;
     }
 
-    // ! this thing
-    // todo this thing
+    /**
+     * Sign in using the username and password set on this service.
+     */
     private McLoginResponse getLoginResponseFromCreds() throws RequestException {
-        // TODO: Migrate alot of this to {@link HTTP}
-
-        String cookie, PPFT, urlPost;
-
-        try {
-            var connection = HTTP.createUrlConnection(getProxy(), MS_LOGIN_ENDPOINT);
-            connection.setDoInput(true);
-
-            try (var in = connection.getResponseCode() == 200 ? connection.getInputStream() : connection.getErrorStream()) {
-                cookie = connection.getHeaderField("set-cookie");
-
-                var body = inputStreamToString(in);
-                var mPPFT = PPFT_PATTERN.matcher(body);
-                var mUrlPost = URL_POST_PATTERN.matcher(body);
+        return getLoginResponseFromToken(() -> {
+            var code = runStage(LoginStage.MSA_CREDENTIALS, this::getAuthorizationCodeFromCreds);
+            var response = runStage(LoginStage.MSA_TOKEN, () -> this.makeRequestForm(
+                    MS_TOKEN_ENDPOINT, new MsTokenRequest(this.clientId, code).toMap(), MsTokenResponse.class));
+            return Objects.requireNonNull(response).access_token;
+        });
+    }
 
-                if (mPPFT.find() && mUrlPost.find()) {
-                    PPFT = mPPFT.group(1);
-                    urlPost = mUrlPost.group(1);
-                } else
-                    throw new ServiceUnavailableException(String.format("Could not parse response of '%s'.", MS_LOGIN_ENDPOINT));
+    private String getAuthorizationCodeFromCreds() throws RequestException {
+        var page = this.request(MS_LOGIN_ENDPOINT, (uri, proxy) -> {
+            try {
+                var connection = HTTP.createUrlConnection(proxy, uri, this.getRequestOptions(MS_LOGIN_ENDPOINT));
+                connection.setDoInput(true);
+
+                try (var in = connection.getResponseCode() == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+                    var fields = scanLoginPage(in);
+                    if (fields[0] == null || fields[1] == null)
+                        throw new ServiceUnavailableException(String.format("Could not parse response of '%s'.", MS_LOGIN_ENDPOINT));
+
+                    return new String[]{connection.getHeaderField("set-cookie"), fields[0], fields[1]};
+                }
+            } catch (IOException e) {
+                throw HTTP.requestFailed(MS_LOGIN_ENDPOINT, e);
             }
-        } catch (IOException e) {
-            throw new ServiceUnavailableException(String.format("Could not make request to '%s'.", MS_LOGIN_ENDPOINT), e);
-        }
+        });
+        String cookie = page[0], PPFT = page[1], urlPost = page[2];
 
         if (cookie.isEmpty() || PPFT.isEmpty() || urlPost.isEmpty())
             throw new RequestException(String.format("Invalid response from '%s'. Missing one or more of cookie, PPFT, or urlPost", MS_LOGIN_ENDPOINT));
@@ -153,48 +192,49 @@ public class MsaAuthenticationService extends AuthenticationService {
         map.put("passwd", this.password);
         map.put("PPFT", PPFT);
 
-        String code;
-        try {
-            var bytes = HTTP.formMapToString(map).getBytes(StandardCharsets.UTF_8);
-            var connection = HTTP.createUrlConnection(getProxy(), URI.create(urlPost));
-            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=utf-8");
-            connection.setRequestProperty("Content-Length", String.valueOf(bytes.length));
-            connection.setRequestProperty("Cookie", cookie);
-
-            connection.setDoInput(true);
-            connection.setDoOutput(true);
-
-            try (var out = connection.getOutputStream()) {
-                out.write(bytes);
+        var postUri = URI.create(urlPost);
+        return this.request(postUri, (uri, proxy) -> {
+            try {
+                var connection = HTTP.createUrlConnection(proxy, uri, this.getRequestOptions(postUri));
+                connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=utf-8");
+                connection.setRequestProperty("Cookie", cookie);
+
+                connection.setDoInput(true);
+                try (var body = RequestBody.acquire()) {
+                    body.writeForm(map).send(connection);
+                }
+
+                if (connection.getResponseCode() != 200 || connection.getURL().toString().equals(urlPost))
+                    // todo: Get and parse the error from the site
+                    // See https://github.com/XboxReplay/xboxlive-auth/blob/master/src/core/live/index.ts#L115
+                    throw new InvalidCredentialsException("Invalid username and/or password");
+
+                var m = CODE_PATTERN.matcher(URLDecoder.decode(connection.getURL().toString(), StandardCharsets.UTF_8.name()));
+                if (m.find()) return m.group(1);
+                else throw new ServiceUnavailableException(String.format("Could not parse response of '%s'.", urlPost));
+            } catch (IOException e) {
+                throw HTTP.requestFailed(postUri, e);
             }
-
-            if (connection.getResponseCode() != 200 || connection.getURL().toString().equals(urlPost))
-                // todo: Get and parse the error from the site
-                // See https://github.com/XboxReplay/xboxlive-auth/blob/master/src/core/live/index.ts#L115
-                throw new InvalidCredentialsException("Invalid username and/or password");
-
-            var m = CODE_PATTERN.matcher(URLDecoder.decode(connection.getURL().toString(), StandardCharsets.UTF_8.name()));
-            if (m.find()) code = m.group(1);
-            else throw new ServiceUnavailableException(String.format("Could not parse response of '%s'.", urlPost));
-        } catch (IOException e) {
-            throw new ServiceUnavailableException(String.format("Could not make request to '%s'.", urlPost), e);
-        }
-
-        return getLoginResponseFromToken(Objects.requireNonNull(HTTP.makeRequestForm(
-                getProxy(), MS_TOKEN_ENDPOINT, new MsTokenRequest(this.clientId, code).toMap(), MsTokenResponse.class)).access_token);
+        });
     }
 
-    private String inputStreamToString(InputStream inputStream) throws IOException {
-        var textBuilder = new StringBuilder();
-        try (var reader = new BufferedReader(new InputStreamReader(inputStream, Charset.forName(StandardCharsets.UTF_8.name())))) {
-            int c;
-            while ((c = reader.read()) != -1) textBuilder.append((char) c);
-        }
-        return textBuilder.toString();
+    /**
+     * Extracts the PPFT value and the post URL from the Microsoft login page.
+     *
+     * @param in Stream of the login page. It is closed once scanning is done.
+     * @return The PPFT value and the post URL, each null if the page does not have it.
+     * @throws IOException If the page cannot be read or is unreasonably large.
+     */
+    static String[] scanLoginPage(InputStream in) throws IOException {
+        return HTTP.scan(in, MS_LOGIN_PAGE_MAX_CHARS, MS_LOGIN_FIELD_MAX_CHARS, PPFT_PATTERN, URL_POST_PATTERN);
     }
 
     /**
-     * Refreshes the access token and refresh token for further use
+     * Refreshes the access token and refresh token for further use.
+     * <p>
+     * The new refresh token replaces the one set on this service, as the old one may no longer be accepted. The
+     * Microsoft access token is only returned: it is not a Minecraft access token, so the session is left unchanged
+     * until a login completes with it.
      *
      * @return The response containing the refresh token, so the user can store it for later use.
      */
@@ -202,54 +242,104 @@ public class MsaAuthenticationService extends AuthenticationService {
         if (this.refreshToken == null || this.refreshToken.isEmpty())
             throw new InvalidCredentialsException("Invalid refresh token.");
 
-        var response = HTTP.makeRequestForm(getProxy(),
+        var response = this.makeRequestForm(
                 MS_TOKEN_ENDPOINT,
                 new MsRefreshRequest(this.clientId, this.refreshToken).toMap(),
                 MsTokenResponse.class);
 
         assert response != null;
-        this.accessToken = response.access_token;
         this.refreshToken = response.refresh_token;
         return response;
     }
 
-    /**
-     * Get an <code>IAccount</code> from the cache (if available) for re-authentication.
-     *
-     * @return An <code>IAccount</code> matching the username given to this <code>MSALAuthenticationService</code>
-     */
-    private IAccount getIAccount() {
-        return this.app.getAccounts().join().stream()
-                .filter(account -> account.username().equalsIgnoreCase(getUsername()))
-                .findFirst().orElse(null);
-    }
-
     /**
      * Get an access token from MSAL using Device Code flow authentication.
+     * <p>
+     * The cached <code>IAccount</code> matching this service's username (if any) is looked up through the shared
+     * {@link MSALAccountIndex}, in which case the token is acquired silently. Nothing here blocks the caller.
      */
-    private CompletableFuture<IAuthenticationResult> getMsalAccessToken() throws MalformedURLException {
+    private CompletableFuture<IAuthenticationResult> getMsalAccessToken() {
         if (this.deviceCodeConsumer == null)
             throw new IllegalStateException("Device code consumer is not set.");
 
-        var account = this.getIAccount();
-        return (account == null)
-                ? this.app.acquireToken(DeviceCodeFlowParameters.builder(this.scopes, this.deviceCodeConsumer).build())
-                : this.app.acquireTokenSilently(SilentParameters.builder(this.scopes, account).build());
+        var username = getUsername();
+        return this.accountIndex.find(username).thenCompose(account -> {
+            if (account == null)
+                return this.app.acquireToken(DeviceCodeFlowParameters.builder(this.scopes, this.deviceCodeConsumer).build());
+
+            try {
+                return this.app.acquireTokenSilently(SilentParameters.builder(this.scopes, account).build())
+                        .whenComplete((result, ex) -> {
+                            // MSAL no longer has usable tokens for this account
+                            if (ex != null && ex.getCause() instanceof MsalInteractionRequiredException)
+                                this.accountIndex.remove(username);
+                        });
+            } catch (MalformedURLException ex) {
+                throw new CompletionException(ex);
+            }
+        }).thenApply(result -> {
+            this.accountIndex.put(result.account());
+            return result;
+        });
+    }
+
+    /**
+     * Block until MSAL has acquired an access token, either silently or through the Device Code flow.
+     */
+    private IAuthenticationResult acquireMsalAccessToken() throws RequestException {
+        try {
+            return getMsalAccessToken().get();
+        } catch (ExecutionException ex) {
+            throw new RequestException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RequestException(ex);
+        }
     }
 
     /**
      * Attempt to sign in using an existing refresh token set by {@link #setRefreshToken(String)}
      */
     private McLoginResponse getLoginResponseFromRefreshToken() throws RequestException {
-        return getLoginResponseFromToken("d=".concat(refreshToken().access_token));
+        return getLoginResponseFromToken(() -> "d=".concat(runStage(LoginStage.MSA_TOKEN, this::refreshToken).access_token));
+    }
+
+    /**
+     * Get a Minecraft login response, using the Microsoft access token from the given call.
+     * <p>
+     * The Xbox Live user token is cached, so that the Microsoft and XBL requests are skipped while it is still valid.
+     * If XSTS rejects the cached token, it is discarded and the login goes through Xbox Live once more.
+     */
+    private McLoginResponse getLoginResponseFromToken(RequestCall<String> accessToken) throws RequestException {
+        var cachedXbl = this.getCachedXboxToken(this.xblToken);
+        XboxToken xsts = null;
+        if (cachedXbl != null) {
+            try {
+                xsts = this.getXstsToken(cachedXbl);
+            } catch (DeadlineExceededException e) {
+                // Running out of time says nothing about the token
+                throw e;
+            } catch (RequestException e) {
+                // The token may have been revoked before it expired
+                this.invalidateXboxTokens();
+            }
+        }
+
+        if (xsts == null) {
+            var token = accessToken.call();
+            var xbl = this.xblToken = XboxToken.from(runStage(LoginStage.XBL,
+                    () -> this.makeRequest(XBL_AUTH_ENDPOINT, new XblAuthRequest(token), XblAuthResponse.class)));
+            xsts = this.getXstsToken(xbl);
+        }
+
+        return getLoginResponseFromXsts(xsts);
     }
 
     /**
-     * Get a Minecraft login response from the given Microsoft access token
+     * Exchanges an Xbox Live user token for an XSTS token, and caches it.
      */
-    private McLoginResponse getLoginResponseFromToken(String accessToken) throws RequestException {
-        var response = HTTP.makeRequest(getProxy(), XBL_AUTH_ENDPOINT, new XblAuthRequest(accessToken), XblAuthResponse.class);
-        response = HTTP.makeRequest(getProxy(), XSTS_AUTH_ENDPOINT, new XstsAuthRequest(response.Token), XblAuthResponse.class);
+    private XboxToken getXstsToken(XboxToken xbl) throws RequestException {
+        var response = runStage(LoginStage.XSTS, () -> this.makeRequest(XSTS_AUTH_ENDPOINT, new XstsAuthRequest(xbl.token), XblAuthResponse.class));
 
         if (response.XErr != 0)
             switch ((int) (response.XErr - 2148916230L)) {
@@ -259,65 +349,307 @@ public class MsaAuthenticationService extends AuthenticationService {
                 default -> throw new XboxRequestException(String.format("Error occurred while authenticating to Xbox Live! Error ID: %s", response.XErr));
             }
 
-        return HTTP.makeRequest(getProxy(), MC_LOGIN_ENDPOINT, new McLoginRequest(response.DisplayClaims.xui[0].uhs, response.Token), McLoginResponse.class);
+        return this.xstsToken = XboxToken.from(response);
+    }
+
+    /**
+     * Get a Minecraft login response from a cached XSTS token, skipping the Microsoft and Xbox Live requests entirely.
+     *
+     * @return The login response, or null if there is no usable cached token.
+     */
+    private McLoginResponse getLoginResponseFromCachedXsts() throws DeadlineExceededException {
+        var xsts = this.getCachedXboxToken(this.xstsToken);
+        if (xsts == null) return null;
+
+        try {
+            return getLoginResponseFromXsts(xsts);
+        } catch (DeadlineExceededException e) {
+            // Running out of time says nothing about the token
+            throw e;
+        } catch (RequestException e) {
+            // The token may have been revoked before it expired; fall back to a full login
+            this.invalidateXboxTokens();
+            return null;
+        }
+    }
+
+    private McLoginResponse getLoginResponseFromXsts(XboxToken xsts) throws RequestException {
+        return runStage(LoginStage.MC_LOGIN, () -> this.makeRequest(MC_LOGIN_ENDPOINT, new McLoginRequest(xsts.uhs, xsts.token), McLoginResponse.class));
+    }
+
+    /**
+     * Returns the given cached token if it has not expired.
+     */
+    private XboxToken getCachedXboxToken(XboxToken token) {
+        return token != null && token.isValid() ? token : null;
+    }
+
+    /**
+     * Discards the cached Xbox Live user and XSTS tokens, forcing the next login to go through Xbox Live again.
+     */
+    public void invalidateXboxTokens() {
+        this.xblToken = null;
+        this.xstsToken = null;
     }
 
     /**
      * Finalizes the authentication process using Xbox API's.
      */
-    private void getProfile() throws RequestException {
-        var response = HTTP.makeRequest(getProxy(),
+    private GameProfile getProfile(String accessToken) throws RequestException {
+        var response = this.makeRequest(
                 MC_PROFILE_ENDPOINT,
                 null,
                 McProfileResponse.class,
-                Collections.singletonMap("Authorization", "Bearer ".concat(this.accessToken)));
+                Collections.singletonMap("Authorization", "Bearer ".concat(accessToken)));
 
         assert response != null;
-        this.selectedProfile = new GameProfile(response.id, response.name);
-        this.profiles = Collections.singletonList(this.selectedProfile);
         this.username = response.name;
+        return new GameProfile(response.id, response.name);
     }
 
     @Override
-    public void login() throws RequestException {
-        try {
-            boolean password = this.password != null && !this.password.isEmpty();
-            boolean refresh = this.refreshToken != null && !this.refreshToken.isEmpty();
+    protected Session performLogin(Session current) throws RequestException {
+        boolean password = this.password != null && !this.password.isEmpty();
+        boolean refresh = this.refreshToken != null && !this.refreshToken.isEmpty();
+
+        // Complain if the username is not set
+        if (this.username == null || this.username.isEmpty())
+            throw new InvalidCredentialsException("Invalid username.");
+
+        // Fix client ID if a password is set
+        if (password)
+            this.clientId = MINECRAFT_CLIENT_ID;
+
+        // Try to log in to the users account, using cached Xbox tokens, refresh token, credentials, or device code
+        var response = getLoginResponseFromCachedXsts();
+        if (response == null)
+            response = refresh ? getLoginResponseFromRefreshToken()
+                    : password ? getLoginResponseFromCreds()
+                    : getLoginResponseFromToken(() -> "d=".concat(runStage(LoginStage.MSAL, this::acquireMsalAccessToken).accessToken()));
 
-            // Complain if the username is not set
-            if (this.username == null || this.username.isEmpty())
-                throw new InvalidCredentialsException("Invalid username.");
+        return this.completeLogin(response);
+    }
 
-            // Fix client ID if a password is set
-            if (password)
-                this.clientId = MINECRAFT_CLIENT_ID;
+    /**
+     * Gets the Minecraft profile to complete a login, and creates the resulting session.
+     */
+    private Session completeLogin(McLoginResponse response) throws RequestException {
+        if (response == null)
+            throw new RequestException("Invalid response received.");
+        var accessToken = response.access_token;
 
-            // Try to log in to the users account, using refresh token, credentials, or device code
-            var response = refresh ? getLoginResponseFromRefreshToken()
-                    : password ? getLoginResponseFromCreds()
-                    : getLoginResponseFromToken("d=".concat(getMsalAccessToken().get().accessToken()));
+        // Get the profile to complete the login process
+        var profile = runStage(LoginStage.MC_PROFILE, () -> getProfile(accessToken));
 
-            if (response == null)
-                throw new RequestException("Invalid response received.");
-            this.accessToken = response.access_token;
+        return Session.loggedIn(accessToken, profile, Collections.singletonList(profile), null, Duration.ofSeconds(response.expires_in));
+    }
 
-            // Get the profile to complete the login process
-            getProfile();
+    /**
+     * Logs the service in without blocking the caller, see {@link #loginAsync(Executor, Duration)}.
+     * The Xbox Live and Minecraft requests run on a shared pool of daemon threads, and the login never times out.
+     *
+     * @return A future completing once the service is logged in.
+     */
+    public CompletableFuture<Void> loginAsync() {
+        return this.loginAsync(LOGIN_EXECUTOR, null);
+    }
 
-            this.loggedIn = true;
-        } catch (MalformedURLException | ExecutionException | InterruptedException ex) {
-            throw new RequestException(ex);
+    /**
+     * Logs the service in without blocking the caller, see {@link #loginAsync(Executor, Duration)}.
+     * The Xbox Live and Minecraft requests run on a shared pool of daemon threads.
+     *
+     * @param timeout How long to wait for the whole login, or null to wait indefinitely.
+     * @return A future completing once the service is logged in.
+     */
+    public CompletableFuture<Void> loginAsync(Duration timeout) {
+        return this.loginAsync(LOGIN_EXECUTOR, timeout);
+    }
+
+    /**
+     * Logs the service in without blocking the caller.
+     * <p>
+     * When the login goes through MSAL, no thread is held while MSAL waits for the user to enter the device code:
+     * MSAL's future is chained into the Xbox Live, XSTS and Minecraft stages, which then run on the given executor.
+     * Logins using a refresh token, credentials or cached Xbox Live tokens have no interactive step and simply run
+     * {@link #login()} on the executor.
+     * <p>
+     * Cancelling the returned future, or letting it time out, abandons the login: the stages chained onto MSAL's
+     * future are skipped if they have not started yet. MSAL's own polling for the device code is not interrupted and
+     * continues in the background until the code expires, but its result is discarded.
+     * <p>
+     * The timeout is also the {@link Deadline} of the requests of the login, so that a request that is still running
+     * when the login times out does not hold the executor for its full read timeout.
+     *
+     * @param executor Executor to run the blocking requests of the login on.
+     * @param timeout  How long to wait for the whole login, or null to wait indefinitely.
+     * @return A future completing once the service is logged in. It completes exceptionally with a
+     * {@link RequestException} if the login failed, or with a {@link java.util.concurrent.TimeoutException} if it timed out.
+     */
+    public CompletableFuture<Void> loginAsync(@NonNull Executor executor, Duration timeout) {
+        var result = new CompletableFuture<Void>();
+        var deadline = timeout != null ? Deadline.after(timeout) : null;
+        if (timeout != null) result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+
+        // Nothing to do while the current session is still good
+        if (this.isLoggedIn() && this.isAccessTokenValid()) {
+            result.complete(null);
+            return result;
+        }
+
+        boolean password = this.password != null && !this.password.isEmpty();
+        boolean refresh = this.refreshToken != null && !this.refreshToken.isEmpty();
+
+        CompletableFuture<Void> login;
+        if (password || refresh || this.getCachedXboxToken(this.xstsToken) != null) {
+            login = CompletableFuture.runAsync(() -> {
+                if (result.isDone()) return;
+                try {
+                    if (deadline != null) deadline.run(() -> {
+                        this.login();
+                        return null;
+                    });
+                    else this.login();
+                } catch (RequestException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        } else if (this.username == null || this.username.isEmpty()) {
+            login = CompletableFuture.failedFuture(new InvalidCredentialsException("Invalid username."));
+        } else {
+            var start = System.nanoTime();
+            var event = new LoginStageEvent();
+            event.begin();
+            CompletableFuture<IAuthenticationResult> msal;
+            try {
+                msal = getMsalAccessToken();
+            } catch (IllegalStateException e) {
+                result.completeExceptionally(e);
+                return result;
+            }
+
+            // Skip the chained stages once nobody is interested in the result; MSAL itself keeps polling
+            result.whenComplete((v, ex) -> {
+                if (ex != null) msal.cancel(true);
+            });
+
+            login = msal.whenComplete((token, ex) -> {
+                        event.commit(this.getClass(), LoginStage.MSAL.name(), unwrap(ex));
+                        this.reportStage(LoginStage.MSAL, System.nanoTime() - start, unwrap(ex));
+                    })
+                    .thenAcceptAsync(token -> {
+                        if (result.isDone()) return;
+                        try {
+                            if (deadline != null) deadline.run(() -> {
+                                this.finishLogin(token);
+                                return null;
+                            });
+                            else this.finishLogin(token);
+                        } catch (RequestException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, executor);
         }
+
+        login.whenComplete((v, ex) -> {
+            if (ex == null) {
+                result.complete(null);
+                return;
+            }
+
+            var cause = unwrap(ex);
+            result.completeExceptionally(cause instanceof RequestException || cause instanceof CancellationException
+                    || cause instanceof IllegalStateException ? cause : new RequestException(cause));
+        });
+        return result;
+    }
+
+    /**
+     * Completes a login with the MSAL access token acquired by {@link #loginAsync(Executor, Duration)}.
+     */
+    private void finishLogin(IAuthenticationResult msal) throws RequestException {
+        this.lockSession();
+        try {
+            // Another login may have finished while MSAL was waiting for the user
+            if (this.isLoggedIn() && this.isAccessTokenValid())
+                return;
+
+            this.setSession(this.completeLogin(getLoginResponseFromToken(() -> "d=".concat(msal.accessToken()))));
+        } finally {
+            this.sessionLock.unlock();
+        }
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Changing to a different account discards the cached Xbox Live tokens of the previous one.
+     */
+    @Override
+    public void setUsername(String username) {
+        var previous = this.username;
+        super.setUsername(username);
+        if (previous != null && !previous.equalsIgnoreCase(username))
+            this.invalidateXboxTokens();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * These are the Microsoft, Xbox Live and Minecraft hosts a login goes through. The hosts MSAL talks to are
+     * handled by MSAL itself and are not warmed up.
+     */
+    @Override
+    protected Collection<URI> getWarmUpUris() {
+        return Arrays.asList(MS_TOKEN_ENDPOINT, XBL_AUTH_ENDPOINT, XSTS_AUTH_ENDPOINT, MC_LOGIN_ENDPOINT);
+    }
+
+    @Override
+    protected void performLogout(Session current) {
+        this.invalidateXboxTokens();
     }
 
     @Override
     public String toString() {
         return "MsaAuthenticationService{" +
                 "clientId='" + this.clientId + '\'' +
-                ", loggedIn=" + this.loggedIn +
+                ", loggedIn=" + this.isLoggedIn() +
                 '}';
     }
 
+    /**
+     * An Xbox Live user or XSTS token, along with the user hash it was issued for.
+     */
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    private static class XboxToken {
+        private final String token;
+        private final String uhs;
+        private final Instant notAfter;
+
+        private static XboxToken from(XblAuthResponse response) throws RequestException {
+            if (response == null || response.Token == null || response.DisplayClaims == null
+                    || response.DisplayClaims.xui == null || response.DisplayClaims.xui.length == 0)
+                throw new XboxRequestException("Xbox Live returned an invalid response.");
+
+            Instant notAfter;
+            try {
+                notAfter = response.NotAfter != null ? Instant.parse(response.NotAfter) : Instant.MIN;
+            } catch (DateTimeParseException e) {
+                // Still usable for this login, just never reused
+                notAfter = Instant.MIN;
+            }
+
+            return new XboxToken(response.Token, response.DisplayClaims.xui[0].uhs, notAfter);
+        }
+
+        private boolean isValid() {
+            return Instant.now().plus(XBOX_TOKEN_EXPIRY_MARGIN).isBefore(this.notAfter);
+        }
+    }
+
     //#region Requests
     @RequiredArgsConstructor(access = AccessLevel.PROTECTED)
     private static class MsTokenRequest {
@@ -2,11 +2,15 @@ package com.github.steveice10.mc.auth.service;
 
 import com.github.steveice10.mc.auth.data.GameProfile;
 import com.github.steveice10.mc.auth.exception.profile.ProfileNotFoundException;
+import com.github.steveice10.mc.auth.exception.request.DeadlineExceededException;
 import com.github.steveice10.mc.auth.exception.request.RequestException;
-import com.github.steveice10.mc.auth.util.HTTP;
+import com.github.steveice10.mc.auth.jfr.ServiceOperationEvent;
+import com.github.steveice10.mc.auth.util.Deadline;
+import com.github.steveice10.mc.auth.util.RequestCall;
 import com.github.steveice10.mc.auth.util.Sleep;
 
 import java.net.URI;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
@@ -59,6 +63,24 @@ public class ProfileService extends Service {
      * @param async    Whether to perform requests asynchronously.
      */
     public void findProfilesByName(final String[] names, final ProfileLookupCallback callback, final boolean async) {
+        this.findProfilesByName(names, callback, async, null);
+    }
+
+    /**
+     * Locates profiles by their names, within a time budget.
+     * <p>
+     * The timeout covers the whole lookup, including every page and every retry: each request gets only the time that
+     * is left, no retry is attempted once the remaining time is shorter than the delay before it, and every name not
+     * found by then is reported as failed with a {@link DeadlineExceededException}.
+     *
+     * @param names    Names to look for.
+     * @param callback Callback to pass results to.
+     * @param async    Whether to perform requests asynchronously.
+     * @param timeout  How long the whole lookup may take, or null to only use the timeouts of the individual requests.
+     */
+    public void findProfilesByName(final String[] names, final ProfileLookupCallback callback, final boolean async, final Duration timeout) {
+        // Started now, so that time spent waiting for the lookup thread counts too
+        var deadline = timeout != null ? Deadline.after(timeout) : null;
         var criteria = new HashSet<String>();
         for (var name : names)
             if (name != null && !name.isEmpty())
@@ -72,8 +94,13 @@ public class ProfileService extends Service {
 
                 while (failCount < MAX_FAIL_COUNT && tryAgain) {
                     tryAgain = false;
+                    var event = new ServiceOperationEvent();
+                    event.operation = ServiceOperationEvent.FIND_PROFILES_PAGE;
+                    event.begin();
                     try {
-                        var profiles = HTTP.makeRequest(getProxy(), getEndpointUri(SEARCH_ENDPOINT), request, GameProfile[].class);
+                        RequestCall<GameProfile[]> call = () -> this.makeRequest(getEndpointUri(SEARCH_ENDPOINT), request, GameProfile[].class);
+                        var profiles = deadline != null ? deadline.run(call) : call.call();
+                        if (event.shouldCommit()) event.commit(getEndpointUri(SEARCH_ENDPOINT).toString(), request.size(), null);
                         failCount = 0;
                         var missing = new HashSet<>(request);
 
@@ -87,7 +114,13 @@ public class ProfileService extends Service {
 
                         Sleep.ms(DELAY_BETWEEN_PAGES);
                     } catch (RequestException ex) {
+                        if (event.shouldCommit()) event.commit(getEndpointUri(SEARCH_ENDPOINT).toString(), request.size(), ex);
                         failCount++;
+                        // Retrying is pointless if the deadline would pass before the retry is sent
+                        if (ex instanceof DeadlineExceededException
+                                || deadline != null && deadline.getRemaining().toMillis() <= DELAY_BETWEEN_FAILURES)
+                            failCount = MAX_FAIL_COUNT;
+
                         if (failCount >= MAX_FAIL_COUNT)
                             for (var name : request)
                                 callback.onProfileLookupFailed(new GameProfile((UUID) null, name), ex);
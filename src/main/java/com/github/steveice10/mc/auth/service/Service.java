@@ -1,25 +1,77 @@
 package com.github.steveice10.mc.auth.service;
 
+import com.github.steveice10.mc.auth.exception.request.DeadlineExceededException;
+import com.github.steveice10.mc.auth.exception.request.RequestException;
+import com.github.steveice10.mc.auth.exception.request.ServiceUnavailableException;
+import com.github.steveice10.mc.auth.util.AdaptiveConcurrencyLimiter;
+import com.github.steveice10.mc.auth.util.Deadline;
+import com.github.steveice10.mc.auth.util.EndpointSelector;
+import com.github.steveice10.mc.auth.util.HTTP;
+import com.github.steveice10.mc.auth.util.ProxyPool;
+import com.github.steveice10.mc.auth.util.RequestInterceptor;
+import com.github.steveice10.mc.auth.util.RequestOptions;
+import lombok.AccessLevel;
 import lombok.Getter;
 
+import java.io.IOException;
 import java.net.Proxy;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Base class for auth-related services.
  */
 @Getter
 public abstract class Service {
+    private static final ScheduledExecutorService WARMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "ServiceWarmUpThread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * Endpoint names will be appended to the base URI when making requests.
      */
     private URI baseUri;
     private Proxy proxy = Proxy.NO_PROXY;
+    /**
+     * Limits in-flight requests per endpoint, or null to send every request right away.
+     */
+    private volatile AdaptiveConcurrencyLimiter concurrencyLimiter;
+    /**
+     * Proxies requests are spread over, or null to send every request over {@link #getProxy()}.
+     */
+    private volatile ProxyPool proxyPool;
+    /**
+     * Health and latency of every base URI, or null if the service only has a single base URI.
+     */
+    private volatile EndpointSelector endpointSelector;
+    /**
+     * Options of requests to endpoints that have no options of their own.
+     */
+    private volatile RequestOptions requestOptions = RequestOptions.DEFAULT;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, RequestOptions> endpointRequestOptions = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.NONE)
+    private final List<RequestInterceptor> interceptors = new CopyOnWriteArrayList<>();
+    @Getter(AccessLevel.NONE)
+    private volatile ScheduledFuture<?> warmUpTask;
 
     public Service(URI initialBaseUri) {
         if (initialBaseUri == null) throw new IllegalArgumentException("Initial Base URI cannot be null.");
@@ -53,6 +105,25 @@ public abstract class Service {
     public void setBaseUri(URI baseUri) {
         if (baseUri == null) throw new IllegalArgumentException("Base URI cannot be null.");
         this.baseUri = baseUri;
+        this.endpointSelector = null;
+    }
+
+    /**
+     * Sets several interchangeable base URIs for this service, such as mirrors of the same API.
+     * <p>
+     * {@link #getBaseUri()} and {@link #getEndpointUri(String)} keep using the first base URI, but each request is
+     * sent to the base URI picked by an {@link EndpointSelector}, and fails over to the next one if it gets no response.
+     *
+     * @param baseUris The base URIs to use, the first of which is the primary.
+     * @throws IllegalArgumentException If no base URIs are provided, or any of them is null.
+     */
+    @SuppressWarnings("unused")
+    public void setBaseUris(List<URI> baseUris) {
+        if (baseUris == null || baseUris.isEmpty()) throw new IllegalArgumentException("At least one base URI is required.");
+        var selector = baseUris.size() > 1 ? new EndpointSelector(baseUris) : null;
+
+        this.setBaseUri(baseUris.get(0));
+        this.endpointSelector = selector;
     }
 
     /**
@@ -97,4 +168,327 @@ public abstract class Service {
     public void setProxy(Proxy proxy) {
         this.proxy = Objects.requireNonNullElse(proxy, Proxy.NO_PROXY);
     }
+
+    /**
+     * Sets the concurrency limiter requests of this service go through.
+     * The same limiter can be shared by several services, so that they share per-endpoint limits.
+     *
+     * @param concurrencyLimiter Limiter to use, or null to send every request right away.
+     */
+    @SuppressWarnings("unused")
+    public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Sets the pool of proxies requests of this service are spread over. While a pool is set, the single proxy set
+     * with {@link #setProxy(Proxy)} is not used.
+     *
+     * @param proxyPool Pool to use, or null to send every request over the single proxy.
+     */
+    @SuppressWarnings("unused")
+    public void setProxyPool(ProxyPool proxyPool) {
+        this.proxyPool = proxyPool;
+    }
+
+    /**
+     * Sets the options, such as timeouts, of requests to endpoints that have no options of their own.
+     *
+     * @param requestOptions Options to use.
+     * @throws IllegalArgumentException If the provided options are null.
+     */
+    @SuppressWarnings("unused")
+    public void setRequestOptions(RequestOptions requestOptions) {
+        if (requestOptions == null) throw new IllegalArgumentException("Request options cannot be null.");
+        this.requestOptions = requestOptions;
+    }
+
+    /**
+     * Sets the options, such as timeouts, of requests to a specific endpoint of this service.
+     * <p>
+     * The endpoint is named the way it is passed to {@link #getEndpointUri(String)}, and also covers the endpoints
+     * below it, so that <code>"session/minecraft/profile"</code> applies to every profile lookup. Requests to URIs
+     * outside the base URI are matched on their full URI without the query.
+     *
+     * @param endpoint       Endpoint to set the options of.
+     * @param requestOptions Options to use, or null to use the service's options again.
+     * @throws IllegalArgumentException If the provided endpoint is null.
+     */
+    @SuppressWarnings("unused")
+    public void setRequestOptions(String endpoint, RequestOptions requestOptions) {
+        if (endpoint == null) throw new IllegalArgumentException("Endpoint cannot be null.");
+        if (requestOptions != null) this.endpointRequestOptions.put(endpoint, requestOptions);
+        else this.endpointRequestOptions.remove(endpoint);
+    }
+
+    /**
+     * Gets the options of requests to the given URI.
+     *
+     * @param uri URI the request is made to.
+     * @return The options of the most specific endpoint containing the URI, or the service's options, followed by the
+     * service's interceptors.
+     */
+    public RequestOptions getRequestOptions(URI uri) {
+        var options = this.requestOptions;
+        if (!this.endpointRequestOptions.isEmpty()) {
+            var relative = this.baseUri.relativize(uri);
+            var endpoint = relative.isAbsolute() ? relative.getScheme() + "://" + relative.getRawAuthority() + relative.getRawPath() : relative.getRawPath();
+            for (int end = endpoint.length(); end > 0; end = endpoint.lastIndexOf('/', end - 1)) {
+                var endpointOptions = this.endpointRequestOptions.get(endpoint.substring(0, end));
+                if (endpointOptions != null) {
+                    options = endpointOptions;
+                    break;
+                }
+            }
+        }
+
+        return options.withInterceptors(this.interceptors);
+    }
+
+    /**
+     * Adds an interceptor that every request of this service is passed through, after the interceptors of the
+     * request's options and the ones added before it.
+     *
+     * @param interceptor Interceptor to add.
+     * @throws IllegalArgumentException If the provided interceptor is null.
+     */
+    @SuppressWarnings("unused")
+    public void addInterceptor(RequestInterceptor interceptor) {
+        if (interceptor == null) throw new IllegalArgumentException("Interceptor cannot be null.");
+        this.interceptors.add(interceptor);
+    }
+
+    /**
+     * Removes an interceptor added with {@link #addInterceptor(RequestInterceptor)}.
+     *
+     * @param interceptor Interceptor to remove.
+     */
+    @SuppressWarnings("unused")
+    public void removeInterceptor(RequestInterceptor interceptor) {
+        this.interceptors.remove(interceptor);
+    }
+
+    /**
+     * Gets the URIs whose hosts {@link #warmUp()} connects to. By default, these are the base URIs of the service.
+     *
+     * @return The URIs to warm up. Only their scheme and authority are used.
+     */
+    protected Collection<URI> getWarmUpUris() {
+        var selector = this.endpointSelector;
+        if (selector == null) return Collections.singletonList(this.baseUri);
+
+        var uris = new ArrayList<URI>(selector.getEndpoints().size());
+        for (var endpoint : selector.getEndpoints()) uris.add(endpoint.getBaseUri());
+        return uris;
+    }
+
+    /**
+     * Resolves the hosts this service talks to and opens a connection to each of them, over every proxy the service
+     * uses, so that the first real requests do not pay for DNS, TCP and TLS handshakes.
+     * <p>
+     * Failures are ignored, as warming up is only an optimization. The connections go back to the JDK's keep-alive
+     * cache, which closes idle connections after a few seconds unless the server asks for longer; see
+     * {@link #startWarmUp(Duration)} to keep them warm.
+     *
+     * @return The number of connections that were established.
+     */
+    public int warmUp() {
+        // One connection per origin is enough
+        var origins = new LinkedHashMap<String, URI>();
+        for (var uri : this.getWarmUpUris())
+            if (uri.getHost() != null) origins.putIfAbsent(uri.getScheme() + "://" + uri.getRawAuthority(), uri);
+
+        var pool = this.proxyPool;
+        var proxies = new ArrayList<Proxy>();
+        if (pool != null) for (var member : pool.getMembers()) proxies.add(member.getProxy());
+        else proxies.add(this.proxy);
+
+        var warmed = 0;
+        for (var uri : origins.values()) {
+            var options = this.getRequestOptions(uri);
+            for (var proxy : proxies) {
+                try {
+                    HTTP.warmUp(proxy, uri, options);
+                    warmed++;
+                } catch (IOException | RuntimeException ignored) {
+                }
+            }
+        }
+        return warmed;
+    }
+
+    /**
+     * Warms up this service now, and then again periodically in the background, see {@link #warmUp()}. Any periodic
+     * warm-up already started is replaced.
+     * <p>
+     * For connections to stay warm, the interval must be shorter than how long idle connections are kept alive. A
+     * longer interval still keeps DNS results and TLS sessions cached, which makes the handshakes of new connections
+     * cheaper.
+     *
+     * @param interval Time between the end of a warm-up and the start of the next.
+     * @throws IllegalArgumentException If the interval is null or not positive.
+     */
+    @SuppressWarnings("unused")
+    public void startWarmUp(Duration interval) {
+        if (interval == null || interval.isNegative() || interval.isZero())
+            throw new IllegalArgumentException("Interval must be positive.");
+
+        this.stopWarmUp();
+        this.warmUpTask = WARMER.scheduleWithFixedDelay(this::warmUp, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic warm-up started by {@link #startWarmUp(Duration)}, if any.
+     */
+    public void stopWarmUp() {
+        var task = this.warmUpTask;
+        if (task != null) task.cancel(false);
+        this.warmUpTask = null;
+    }
+
+    /**
+     * Makes a request using this service's proxy.
+     *
+     * @see HTTP#makeRequest(Proxy, URI, Object)
+     */
+    protected void makeRequest(URI uri, Object input) throws RequestException {
+        this.makeRequest(uri, input, null);
+    }
+
+    /**
+     * Makes a request using this service's proxy.
+     *
+     * @see HTTP#makeRequest(Proxy, URI, Object, Class)
+     */
+    protected <T> T makeRequest(URI uri, Object input, Class<T> responseType) throws RequestException {
+        return this.makeRequest(uri, input, responseType, Collections.emptyMap());
+    }
+
+    /**
+     * Makes a request using this service's proxy.
+     *
+     * @see HTTP#makeRequest(Proxy, URI, Object, Class, Map)
+     */
+    protected <T> T makeRequest(URI uri, Object input, Class<T> responseType, Map<String, String> extraHeaders) throws RequestException {
+        var options = this.getRequestOptions(uri);
+        return this.request(uri, (target, proxy) -> HTTP.makeRequest(proxy, target, input, responseType, extraHeaders, options));
+    }
+
+    /**
+     * Makes a form request using this service's proxy.
+     *
+     * @see HTTP#makeRequestForm(Proxy, URI, Map, Class)
+     */
+    protected <T> T makeRequestForm(URI uri, Map<String, String> input, Class<T> responseType) throws RequestException {
+        var options = this.getRequestOptions(uri);
+        return this.request(uri, (target, proxy) -> HTTP.makeRequestForm(proxy, target, input, responseType, options));
+    }
+
+    /**
+     * Runs an outbound request of this service. Every request a service makes goes through here, so that it is
+     * sent to the best base URI, subject to the service's concurrency limiter, and sent over a proxy from its proxy
+     * pool.
+     * <p>
+     * If the service has several base URIs and the given URI is under the primary one, the request is sent to the
+     * base URI picked by the endpoint selector instead, and retried against the others if it fails with a
+     * {@link ServiceUnavailableException}, as long as the current {@link Deadline} allows. That covers no response at
+     * all, a server error, and a response that is not a valid API response; an error returned by the API itself is
+     * thrown right away.
+     * <p>
+     * A retry replays the whole request, including the body of a POST that may already have reached the failed base
+     * URI, for example when its response timed out. Only send requests through here that are safe to repeat. The
+     * requests of the services in this library are: a repeated lookup or join does the same thing again, and a repeated
+     * token refresh whose first attempt went through fails with an API error instead of acting twice.
+     *
+     * @param uri  URI the request is made to, usually from {@link #getEndpointUri(String)}.
+     * @param call Request to run, given the URI and proxy to send it to.
+     * @param <T>  Result type of the request.
+     * @return The result of the request.
+     * @throws RequestException If the request fails or is rejected.
+     */
+    protected <T> T request(URI uri, EndpointCall<T> call) throws RequestException {
+        return this.request(uri, null, null, call);
+    }
+
+    /**
+     * Runs an outbound request of this service like {@link #request(URI, EndpointCall)}, with control over which proxy
+     * it is sent over, for example to send a hedged request over a different route than the original.
+     *
+     * @param uri   URI the request is made to, usually from {@link #getEndpointUri(String)}.
+     * @param proxy Proxy to send the request over instead of one from the proxy pool, or null. The request is then
+     *              neither limited by the pool's rate budgets nor counted in its health.
+     * @param avoid Proxy of the pool not to use if another one is available, or null.
+     * @param call  Request to run, given the URI and proxy to send it to.
+     * @param <T>   Result type of the request.
+     * @return The result of the request.
+     * @throws RequestException If the request fails or is rejected.
+     */
+    protected <T> T request(URI uri, Proxy proxy, Proxy avoid, EndpointCall<T> call) throws RequestException {
+        var selector = this.endpointSelector;
+        var relative = this.baseUri.relativize(uri);
+        if (selector == null || relative.isAbsolute()) return this.send(uri, proxy, avoid, call);
+
+        ServiceUnavailableException failure = null;
+        for (var endpoint : selector.order()) {
+            try {
+                return this.send(endpoint.getBaseUri().resolve(relative), proxy, avoid, measure(endpoint, call));
+            } catch (ServiceUnavailableException e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+
+        throw failure;
+    }
+
+    /**
+     * Wraps a request so that its outcome is recorded against an endpoint. Only the request itself is timed, once it
+     * is past the concurrency limiter and proxy pool, so that waiting for a slot or rate budget is not blamed on the
+     * endpoint.
+     */
+    private static <T> EndpointCall<T> measure(EndpointSelector.Endpoint endpoint, EndpointCall<T> call) {
+        return (uri, proxy) -> {
+            var start = System.nanoTime();
+            endpoint.onStart();
+            try {
+                var result = call.call(uri, proxy);
+                endpoint.onSuccess(System.nanoTime() - start);
+                return result;
+            } catch (ServiceUnavailableException e) {
+                endpoint.onFailure();
+                throw e;
+            } catch (DeadlineExceededException | RuntimeException e) {
+                // Cut short by the caller's budget, or failed locally, which says nothing about the endpoint
+                endpoint.onCancel();
+                throw e;
+            } catch (RequestException e) {
+                // The endpoint answered with an API error: the request itself was refused
+                endpoint.onSuccess(System.nanoTime() - start);
+                throw e;
+            }
+        };
+    }
+
+    private <T> T send(URI uri, Proxy proxy, Proxy avoid, EndpointCall<T> call) throws RequestException {
+        Deadline.checkCurrent();
+        var pool = this.proxyPool;
+        var limiter = this.concurrencyLimiter;
+        if (proxy == null && pool != null) {
+            // The proxy is picked first, so that waiting for its rate budget does not count as endpoint latency
+            return pool.call(avoid, member -> limiter != null ? limiter.call(uri, () -> call.call(uri, member)) : call.call(uri, member));
+        }
+
+        var target = proxy != null ? proxy : this.proxy;
+        return limiter != null ? limiter.call(uri, () -> call.call(uri, target)) : call.call(uri, target);
+    }
+
+    /**
+     * A request of a service, sent to a given URI over a given proxy.
+     *
+     * @param <T> Result type of the request.
+     */
+    @FunctionalInterface
+    protected interface EndpointCall<T> {
+        T call(URI uri, Proxy proxy) throws RequestException;
+    }
 }
@@ -4,23 +4,33 @@ import com.github.steveice10.mc.auth.data.GameProfile;
 import com.github.steveice10.mc.auth.exception.profile.ProfileException;
 import com.github.steveice10.mc.auth.exception.profile.ProfileLookupException;
 import com.github.steveice10.mc.auth.exception.profile.ProfileNotFoundException;
+import com.github.steveice10.mc.auth.exception.request.DeadlineExceededException;
 import com.github.steveice10.mc.auth.exception.request.RequestException;
+import com.github.steveice10.mc.auth.exception.request.RequestRejectedException;
+import com.github.steveice10.mc.auth.jfr.ServiceOperationEvent;
+import com.github.steveice10.mc.auth.util.AdmissionController;
+import com.github.steveice10.mc.auth.util.Deadline;
 import com.github.steveice10.mc.auth.util.HTTP;
+import com.github.steveice10.mc.auth.util.RateLimiter;
+import com.github.steveice10.mc.auth.util.RequestCall;
+import com.github.steveice10.mc.auth.util.RequestHedger;
+import com.github.steveice10.mc.auth.util.ServerIdHasher;
 import com.github.steveice10.mc.auth.util.UUIDSerializer;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
 
 import javax.crypto.SecretKey;
-import java.math.BigInteger;
+import java.net.Proxy;
 import java.net.URI;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.UUID;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Service used for session-related queries.
@@ -32,6 +42,22 @@ public class SessionService extends Service {
             HAS_JOINED_ENDPOINT = "hasJoined",
             PROFILE_ENDPOINT = "profile";
 
+    private volatile ServerIdHasher serverIdHasher;
+    /**
+     * Limits concurrent hasJoined requests, or null to send every request right away.
+     */
+    @Getter @Setter private volatile AdmissionController hasJoinedAdmission;
+    /**
+     * Sends a duplicate of slow hasJoined requests, or null to never hedge them.
+     */
+    @Getter @Setter private volatile RequestHedger hasJoinedHedger;
+    /**
+     * Proxy hedged requests are sent over, bypassing the proxy pool, or null to pick one like for any other request.
+     * With a proxy pool, the hedge is then sent over a different proxy of the pool than the original, if one is
+     * available.
+     */
+    @Getter @Setter private volatile Proxy hedgeProxy;
+
     /**
      * Creates a new SessionService instance.
      */
@@ -41,6 +67,9 @@ public class SessionService extends Service {
 
     /**
      * Calculates the server ID from a base string, public key, and secret key.
+     * <p>
+     * The encoded form of the most recently used public key is cached, so repeated calls for the same server do not
+     * encode it again. Use a {@link ServerIdHasher} directly to keep hashers for several servers around.
      *
      * @param base      Base server ID to use.
      * @param publicKey Public key to use.
@@ -50,15 +79,10 @@ public class SessionService extends Service {
      */
     @SuppressWarnings("unused")
     public String getServerId(String base, PublicKey publicKey, SecretKey secretKey) {
-        try {
-            var digest = MessageDigest.getInstance("SHA-1");
-            digest.update(base.getBytes(StandardCharsets.ISO_8859_1));
-            digest.update(secretKey.getEncoded());
-            digest.update(publicKey.getEncoded());
-            return new BigInteger(digest.digest()).toString(16);
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException("Server ID hash algorithm unavailable.", e);
-        }
+        var hasher = this.serverIdHasher;
+        if (hasher == null || hasher.getPublicKey() != publicKey)
+            this.serverIdHasher = hasher = new ServerIdHasher(publicKey);
+        return hasher.getServerId(base, secretKey);
     }
 
     /**
@@ -71,24 +95,82 @@ public class SessionService extends Service {
      */
     @SuppressWarnings("unused")
     public void joinServer(GameProfile profile, String authenticationToken, String serverId) throws RequestException {
-        HTTP.makeRequest(getProxy(), getEndpointUri(JOIN_ENDPOINT), new JoinServerRequest(authenticationToken, profile.getId(), serverId), null);
+        this.makeRequest(getEndpointUri(JOIN_ENDPOINT), new JoinServerRequest(authenticationToken, profile.getId(), serverId), null);
     }
 
     /**
      * Gets the profile of the given user if they are currently logged in to the given server.
+     * <p>
+     * If a hasJoined admission controller is set, the request waits for a slot within its default deadline. If a
+     * hasJoined hedger is set, a duplicate request is sent when the response is slow to arrive.
      *
      * @param name     Name of the user to get the profile of.
      * @param serverId ID of the server to check if they're logged in to.
      * @return The profile of the given user, or null if they are not logged in to the given server.
      * @throws RequestException If an error occurs while making the request.
+     * @see #setHasJoinedAdmission(AdmissionController)
+     * @see #setHasJoinedHedger(RequestHedger)
      */
     @SuppressWarnings("unused")
     public GameProfile getProfileByServer(String name, String serverId) throws RequestException {
+        return this.getProfileByServer(name, serverId, null);
+    }
+
+    /**
+     * Gets the profile of the given user if they are currently logged in to the given server.
+     *
+     * @param name     Name of the user to get the profile of.
+     * @param serverId ID of the server to check if they're logged in to.
+     * @param deadline How long the caller is willing to wait for a slot and the request, or null for the admission
+     *                 controller's default and the request's own timeouts.
+     * @return The profile of the given user, or null if they are not logged in to the given server.
+     * @throws RequestRejectedException  If the admission controller could not admit the request within its deadline.
+     * @throws DeadlineExceededException If the request did not complete within the deadline.
+     * @throws RequestException          If an error occurs while making the request.
+     */
+    @SuppressWarnings("unused")
+    public GameProfile getProfileByServer(String name, String serverId, Duration deadline) throws RequestException {
+        var event = new ServiceOperationEvent();
+        event.operation = ServiceOperationEvent.HAS_JOINED;
+        event.begin();
+        Throwable error = null;
+        try {
+            if (deadline == null) return this.admitHasJoined(name, serverId, null);
+            return Deadline.after(deadline).run(() -> this.admitHasJoined(name, serverId, deadline));
+        } catch (RequestException | RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            if (event.shouldCommit()) event.commit(this.getEndpointUri(HAS_JOINED_ENDPOINT).toString(), 1, error);
+        }
+    }
+
+    private GameProfile admitHasJoined(String name, String serverId, Duration deadline) throws RequestException {
+        var admission = this.hasJoinedAdmission;
+        return admission != null ? admission.call(deadline, () -> this.requestHasJoined(name, serverId))
+                : this.requestHasJoined(name, serverId);
+    }
+
+    private GameProfile requestHasJoined(String name, String serverId) throws RequestException {
         var queryParams = new HashMap<String, String>();
         queryParams.put("username", name);
         queryParams.put("serverId", serverId);
 
-        var response = HTTP.makeRequest(this.getProxy(), this.getEndpointUri(HAS_JOINED_ENDPOINT, queryParams), null, HasJoinedResponse.class);
+        var uri = this.getEndpointUri(HAS_JOINED_ENDPOINT, queryParams);
+        var hedger = this.hasJoinedHedger;
+        HasJoinedResponse response;
+        if (hedger == null) response = this.makeRequest(uri, null, HasJoinedResponse.class);
+        else {
+            var options = this.getRequestOptions(uri);
+            // The hedge goes over the hedge proxy, bypassing the pool, or else over a different proxy of the pool
+            var originalProxy = new AtomicReference<Proxy>();
+            var hedgeProxy = this.hedgeProxy;
+            response = hedger.call(() -> this.request(uri, (target, proxy) -> {
+                originalProxy.set(proxy);
+                return HTTP.makeRequest(proxy, target, null, HasJoinedResponse.class, Collections.emptyMap(), options);
+            }), () -> this.request(uri, hedgeProxy, originalProxy.get(),
+                    (target, proxy) -> HTTP.makeRequest(proxy, target, null, HasJoinedResponse.class, Collections.emptyMap(), options)));
+        }
         if (response != null && response.id != null) {
             var result = new GameProfile(response.id, name);
             result.setProperties(response.properties);
@@ -107,15 +189,120 @@ public class SessionService extends Service {
     public GameProfile fillProfileProperties(GameProfile profile) throws ProfileException {
         if (profile.getId() == null) return profile;
 
+        profile.setProperties(this.fetchProfileProperties(profile));
+        return profile;
+    }
+
+    /**
+     * Fills in the properties of many profiles at once.
+     * <p>
+     * Profiles are deduplicated by UUID: each UUID is looked up once, and the result is applied to every profile with
+     * that UUID. Lookups run on up to <code>parallelism</code> threads, the calling thread being one of them, and each
+     * lookup first waits for a permit from the rate limiter, if one is given. This returns as soon as the last lookup
+     * has completed. A lookup that fails with an unexpected exception, including one thrown by the callback, is
+     * reported as a failed lookup of that UUID rather than stopping the remaining lookups.
+     *
+     * @param profiles    Profiles to fill in the properties of. Profiles without a UUID are left as they are.
+     * @param parallelism Maximum number of lookups to run at the same time.
+     * @param rateLimiter Rate budget for the lookups, or null to look up as fast as possible.
+     * @param callback    Callback to report the result for each profile to, or null.
+     * @return The failure of each UUID whose lookup failed. Empty if every lookup succeeded.
+     * @throws IllegalArgumentException If the parallelism is not positive.
+     * @throws InterruptedException     If the thread is interrupted while waiting for the lookups.
+     */
+    @SuppressWarnings("unused")
+    public Map<UUID, ProfileException> fillProfileProperties(Collection<GameProfile> profiles, int parallelism, RateLimiter rateLimiter, ProfileService.ProfileLookupCallback callback) throws InterruptedException {
+        if (parallelism <= 0) throw new IllegalArgumentException("Parallelism must be positive.");
+
+        var byId = new LinkedHashMap<UUID, List<GameProfile>>();
+        for (var profile : profiles) {
+            if (profile == null) continue;
+            if (profile.getId() == null) {
+                if (callback != null) callback.onProfileLookupSucceeded(profile);
+            } else byId.computeIfAbsent(profile.getId(), id -> new ArrayList<>(1)).add(profile);
+        }
+
+        var pending = new ConcurrentLinkedQueue<>(byId.values());
+        var remaining = new CountDownLatch(byId.size());
+        var failures = new ConcurrentHashMap<UUID, ProfileException>();
+        // Every worker honours the caller's deadline, if any
+        var deadline = Deadline.current();
+
+        Runnable worker = () -> {
+            List<GameProfile> group;
+            while ((group = pending.poll()) != null) {
+                try {
+                    if (rateLimiter != null) rateLimiter.acquire();
+
+                    var properties = this.fetchProfileProperties(group.get(0), deadline);
+                    for (var profile : group) {
+                        profile.setProperties(properties);
+                        if (callback != null) callback.onProfileLookupSucceeded(profile);
+                    }
+                } catch (ProfileException e) {
+                    failGroup(group, e, failures, callback);
+                } catch (RuntimeException e) {
+                    // Must not kill the worker, or the groups left in the queue would never be looked up
+                    failGroup(group, new ProfileLookupException("Couldn't fill in profile properties for " + group.get(0) + ".", e), failures, callback);
+                } catch (InterruptedException e) {
+                    // Leave the rest of the queue to the other workers
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    remaining.countDown();
+                }
+            }
+        };
+
+        int threads = Math.min(parallelism, byId.size());
+        for (int i = 1; i < threads; i++) {
+            var thread = new Thread(worker, "ProfilePropertiesThread-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        worker.run();
+        remaining.await();
+        return failures;
+    }
+
+    private static void failGroup(List<GameProfile> group, ProfileException e, Map<UUID, ProfileException> failures, ProfileService.ProfileLookupCallback callback) {
+        failures.put(group.get(0).getId(), e);
+        if (callback == null) return;
+
+        for (var profile : group) {
+            try {
+                callback.onProfileLookupFailed(profile, e);
+            } catch (RuntimeException ignored) {
+                // Already reported through the returned failures
+            }
+        }
+    }
+
+    private List<GameProfile.Property> fetchProfileProperties(GameProfile profile) throws ProfileException {
+        return this.fetchProfileProperties(profile, null);
+    }
+
+    /**
+     * @param deadline Deadline to run the lookup under, or null to use the current one, if any.
+     */
+    private List<GameProfile.Property> fetchProfileProperties(GameProfile profile, Deadline deadline) throws ProfileException {
+        var event = new ServiceOperationEvent();
+        event.operation = ServiceOperationEvent.FILL_PROFILE_PROPERTIES;
+        event.begin();
+        ProfileException error = null;
         try {
-            var response = HTTP.makeRequest(this.getProxy(), this.getEndpointUri(PROFILE_ENDPOINT + "/" + UUIDSerializer.fromUUID(profile.getId()), Collections.singletonMap("unsigned", "false")), null, MinecraftProfileResponse.class);
+            var uri = this.getEndpointUri(PROFILE_ENDPOINT + "/" + UUIDSerializer.fromUUID(profile.getId()), Collections.singletonMap("unsigned", "false"));
+            RequestCall<MinecraftProfileResponse> call = () -> this.makeRequest(uri, null, MinecraftProfileResponse.class);
+            var response = deadline != null ? deadline.run(call) : call.call();
             if (response == null)
-                throw new ProfileNotFoundException("Couldn't fetch profile properties for " + profile + " as the profile does not exist.");
+                throw error = new ProfileNotFoundException("Couldn't fetch profile properties for " + profile + " as the profile does not exist.");
 
-            profile.setProperties(response.properties);
-            return profile;
+            return response.properties;
         } catch (RequestException e) {
-            throw new ProfileLookupException("Couldn't look up profile properties for " + profile + ".", e);
+            throw error = new ProfileLookupException("Couldn't look up profile properties for " + profile + ".", e);
+        } finally {
+            if (event.shouldCommit()) event.commit(this.getEndpointUri(PROFILE_ENDPOINT).toString(), 1, error);
         }
     }
 
@@ -0,0 +1,336 @@
+package com.github.steveice10.mc.auth.util;
+
+import com.github.steveice10.mc.auth.exception.request.DeadlineExceededException;
+import com.github.steveice10.mc.auth.exception.request.RequestException;
+import com.github.steveice10.mc.auth.exception.request.RequestRejectedException;
+import com.github.steveice10.mc.auth.exception.request.ServiceUnavailableException;
+import lombok.Getter;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of in-flight requests per endpoint, adjusting each limit to how the endpoint is doing.
+ * <p>
+ * Limits follow additive-increase/multiplicative-decrease: while an endpoint is kept busy and answers at close to the
+ * lowest latency seen recently, its limit grows by about one request per round trip. When a request fails because the
+ * service is unavailable, or takes longer than {@link Builder#tolerance(double)} times the lowest recent latency, the
+ * limit is cut by {@link Builder#backoffRatio(double)}. Only one cut is made per round trip, so a single slow period
+ * does not collapse the limit.
+ * <p>
+ * Requests over the limit wait for a slot, and are rejected with a {@link RequestRejectedException} if none frees up
+ * within {@link Builder#maxWait(Duration)}, or fail with a {@link DeadlineExceededException} if the current
+ * {@link Deadline} passes first. A request cut short by its deadline says nothing about the endpoint, so it leaves the
+ * limit as it is. Endpoints are keyed by host and path, with UUIDs and other IDs in the
+ * path folded together, so that for example all profile lookups share a limit.
+ * <p>
+ * A limiter can be shared by several services, see {@link com.github.steveice10.mc.auth.service.Service#setConcurrencyLimiter(AdaptiveConcurrencyLimiter)}.
+ */
+public class AdaptiveConcurrencyLimiter {
+    /**
+     * The lowest latency is re-measured after this many samples, so the baseline follows changes in the route.
+     */
+    private static final int MIN_LATENCY_WINDOW = 250;
+
+    @Getter private final int initialLimit;
+    @Getter private final int minLimit;
+    @Getter private final int maxLimit;
+    @Getter private final double tolerance;
+    @Getter private final double backoffRatio;
+    @Getter private final Duration maxWait;
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a limiter with the default settings.
+     */
+    public AdaptiveConcurrencyLimiter() {
+        this(new Builder());
+    }
+
+    private AdaptiveConcurrencyLimiter(Builder builder) {
+        this.initialLimit = builder.initialLimit;
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.tolerance = builder.tolerance;
+        this.backoffRatio = builder.backoffRatio;
+        this.maxWait = builder.maxWait;
+    }
+
+    /**
+     * Gets the key requests to the given URI are limited under: its host and path, with ID segments replaced.
+     *
+     * @param uri URI of the request.
+     * @return The endpoint key.
+     */
+    public static String endpointKey(URI uri) {
+        var path = uri.getRawPath();
+        var key = new StringBuilder(uri.getHost() != null ? uri.getHost() : "");
+        if (path == null || path.isEmpty()) return key.toString();
+
+        int start = path.charAt(0) == '/' ? 1 : 0;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) end = path.length();
+
+            key.append('/');
+            if (isId(path, start, end)) key.append("{id}");
+            else key.append(path, start, end);
+
+            start = end + 1;
+        }
+        return key.toString();
+    }
+
+    /**
+     * Gets whether a path segment looks like an ID: a UUID, or a long run of hex digits.
+     */
+    private static boolean isId(String path, int start, int end) {
+        int length = end - start, digits = 0;
+        if (length != 32 && length != 36) return false;
+
+        for (int i = start; i < end; i++) {
+            var c = path.charAt(i);
+            if (c == '-' && length == 36) continue;
+            if (Character.digit(c, 16) < 0) return false;
+            digits++;
+        }
+        return digits == 32;
+    }
+
+    /**
+     * Runs a request once its endpoint has a free slot, and adjusts the endpoint's limit from the outcome.
+     *
+     * @param uri  URI of the request.
+     * @param call Request to run.
+     * @param <T>  Result type of the request.
+     * @return The result of the request.
+     * @throws RequestRejectedException  If no slot freed up within the maximum wait.
+     * @throws DeadlineExceededException If the current deadline passed while waiting for a slot, or during the request.
+     * @throws RequestException          If the request fails.
+     */
+    public <T> T call(URI uri, RequestCall<T> call) throws RequestException {
+        var endpoint = this.endpoints.computeIfAbsent(endpointKey(uri), key -> new Endpoint(this.initialLimit));
+        endpoint.acquire(uri);
+
+        var start = System.nanoTime();
+        boolean overloaded = false, cancelled = false;
+        try {
+            return call.call();
+        } catch (ServiceUnavailableException e) {
+            overloaded = true;
+            throw e;
+        } catch (DeadlineExceededException e) {
+            // Its latency is the caller's budget rather than the endpoint's, so it must not count as a slow sample
+            cancelled = true;
+            throw e;
+        } finally {
+            if (cancelled) endpoint.cancel();
+            else endpoint.release(start, System.nanoTime() - start, overloaded);
+        }
+    }
+
+    /**
+     * Gets the current limit of the endpoint the given URI belongs to.
+     *
+     * @param uri URI of a request.
+     * @return The endpoint's in-flight request limit.
+     */
+    public int getLimit(URI uri) {
+        var endpoint = this.endpoints.get(endpointKey(uri));
+        return endpoint != null ? endpoint.currentLimit() : this.initialLimit;
+    }
+
+    /**
+     * Gets the current limit of every endpoint that has been used.
+     *
+     * @return The limits, keyed by {@link #endpointKey(URI)}.
+     */
+    public Map<String, Integer> getLimits() {
+        var limits = new TreeMap<String, Integer>();
+        for (var entry : this.endpoints.entrySet()) limits.put(entry.getKey(), entry.getValue().currentLimit());
+        return Collections.unmodifiableMap(limits);
+    }
+
+    /**
+     * Gets the number of requests currently in flight to the endpoint the given URI belongs to.
+     *
+     * @param uri URI of a request.
+     * @return The number of in-flight requests.
+     */
+    public int getInFlight(URI uri) {
+        var endpoint = this.endpoints.get(endpointKey(uri));
+        return endpoint != null ? endpoint.inFlightCount() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveConcurrencyLimiter{limits=" + this.getLimits() + "}";
+    }
+
+    private class Endpoint {
+        private double limit;
+        private int inFlight;
+        private long minLatency = Long.MAX_VALUE;
+        private long windowMinLatency = Long.MAX_VALUE;
+        private int windowSamples;
+        private long lastDecrease;
+
+        private Endpoint(int limit) {
+            this.limit = limit;
+            this.lastDecrease = System.nanoTime();
+        }
+
+        private synchronized int currentLimit() {
+            return (int) this.limit;
+        }
+
+        private synchronized int inFlightCount() {
+            return this.inFlight;
+        }
+
+        private synchronized void acquire(URI uri) throws RequestException {
+            if (this.inFlight >= (int) this.limit) {
+                // Wait no longer than the caller's own deadline allows
+                var wait = maxWait.toNanos();
+                var callerDeadline = Deadline.current();
+                var deadlineBound = callerDeadline != null && callerDeadline.getRemaining().toNanos() < wait;
+                if (deadlineBound) wait = callerDeadline.getRemaining().toNanos();
+
+                var deadline = System.nanoTime() + wait;
+                try {
+                    long remaining;
+                    while (this.inFlight >= (int) this.limit) {
+                        if ((remaining = deadline - System.nanoTime()) <= 0) {
+                            if (deadlineBound)
+                                throw new DeadlineExceededException("Deadline exceeded while waiting for a request slot to '" + endpointKey(uri) + "'.");
+                            throw new RequestRejectedException("Too many requests in flight to '" + endpointKey(uri) + "' (limit " + (int) this.limit + ").");
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RequestRejectedException("Interrupted while waiting for a request slot.", e);
+                }
+            }
+
+            this.inFlight++;
+        }
+
+        /**
+         * Frees a slot without taking the request into account.
+         */
+        private synchronized void cancel() {
+            this.inFlight--;
+            this.notifyAll();
+        }
+
+        private synchronized void release(long start, long latency, boolean overloaded) {
+            // Was the endpoint actually kept busy? If not, a fast response says nothing about a higher limit
+            boolean saturated = this.inFlight * 2 >= (int) this.limit;
+            this.inFlight--;
+
+            if (!overloaded) {
+                this.minLatency = Math.min(this.minLatency, latency);
+                this.windowMinLatency = Math.min(this.windowMinLatency, latency);
+                if (++this.windowSamples >= MIN_LATENCY_WINDOW) {
+                    // Start over from the latest window, so the baseline can rise again as well
+                    this.minLatency = this.windowMinLatency;
+                    this.windowMinLatency = Long.MAX_VALUE;
+                    this.windowSamples = 0;
+                }
+            }
+
+            if (overloaded || latency > this.minLatency * tolerance) {
+                // Requests that started before the last cut were already counted in it
+                if (start - this.lastDecrease > 0) {
+                    this.limit = Math.max(minLimit, this.limit * backoffRatio);
+                    this.lastDecrease = System.nanoTime();
+                }
+            } else if (saturated) {
+                this.limit = Math.min(maxLimit, this.limit + 1 / this.limit);
+            }
+
+            this.notifyAll();
+        }
+    }
+
+    public static class Builder {
+        private int initialLimit = 10;
+        private int minLimit = 1;
+        private int maxLimit = 200;
+        private double tolerance = 2;
+        private double backoffRatio = 0.75;
+        private Duration maxWait = Duration.ofSeconds(15);
+
+        /**
+         * Set the limit endpoints start with. Defaults to 10.
+         */
+        public Builder initialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        /**
+         * Set the lowest limit an endpoint can be cut down to. Defaults to 1.
+         */
+        public Builder minLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        /**
+         * Set the highest limit an endpoint can grow to. Defaults to 200.
+         */
+        public Builder maxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * Set how many times the lowest recent latency a request may take before it counts as a sign of congestion.
+         * Defaults to 2.
+         */
+        public Builder tolerance(double tolerance) {
+            this.tolerance = tolerance;
+            return this;
+        }
+
+        /**
+         * Set the factor a limit is multiplied by when congestion is detected. Defaults to 0.75.
+         */
+        public Builder backoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * Set how long a request may wait for a slot before it is rejected. Defaults to 15 seconds.
+         */
+        public Builder maxWait(Duration maxWait) {
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException If the limits are inconsistent, or a factor or the maximum wait is out of range.
+         */
+        public AdaptiveConcurrencyLimiter build() {
+            if (this.minLimit <= 0 || this.maxLimit < this.minLimit)
+                throw new IllegalArgumentException("Limits must be positive, and the max limit at least the min limit.");
+            if (this.initialLimit < this.minLimit || this.initialLimit > this.maxLimit)
+                throw new IllegalArgumentException("Initial limit must be between the min and max limit.");
+            if (this.tolerance < 1) throw new IllegalArgumentException("Tolerance must be at least 1.");
+            if (this.backoffRatio <= 0 || this.backoffRatio >= 1)
+                throw new IllegalArgumentException("Backoff ratio must be between 0 and 1.");
+            if (this.maxWait == null || this.maxWait.isNegative())
+                throw new IllegalArgumentException("Max wait cannot be null or negative.");
+
+            return new AdaptiveConcurrencyLimiter(this);
+        }
+    }
+}
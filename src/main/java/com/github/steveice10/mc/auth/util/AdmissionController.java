@@ -0,0 +1,207 @@
+package com.github.steveice10.mc.auth.util;
+
+import com.github.steveice10.mc.auth.exception.request.RequestException;
+import com.github.steveice10.mc.auth.exception.request.RequestRejectedException;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the number of requests running at the same time, queueing the rest in arrival order.
+ * <p>
+ * Each request has a deadline. A request is rejected right away, rather than left to time out, when the queue is full
+ * or when the requests already waiting ahead of it, served at the average service time seen so far, would not leave it
+ * enough time to complete. A request still waiting when its deadline passes is rejected as well.
+ * <p>
+ * The deadline only bounds the wait for a slot. Once admitted, a call runs to completion; to bound the call itself,
+ * run it under a {@link Deadline} as well.
+ */
+public class AdmissionController {
+    /**
+     * Weight of the newest sample in the average service time.
+     */
+    private static final int SERVICE_TIME_SMOOTHING = 8;
+
+    @Getter private final int maxConcurrent;
+    @Getter private final int maxQueued;
+    @Getter private final Duration defaultDeadline;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong averageServiceNanos = new AtomicLong();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    /**
+     * Time admitted requests spent waiting for a slot.
+     */
+    @Getter private final LatencyHistogram waitTimes = new LatencyHistogram();
+
+    /**
+     * Creates a new AdmissionController.
+     *
+     * @param maxConcurrent   Maximum number of requests that may run at the same time.
+     * @param maxQueued       Maximum number of requests that may wait for a slot.
+     * @param defaultDeadline Deadline of requests that do not specify one.
+     * @throws IllegalArgumentException If a limit is not positive, or the deadline is not positive.
+     */
+    public AdmissionController(int maxConcurrent, int maxQueued, Duration defaultDeadline) {
+        if (maxConcurrent <= 0) throw new IllegalArgumentException("Max concurrent requests must be positive.");
+        if (maxQueued <= 0) throw new IllegalArgumentException("Max queued requests must be positive.");
+        if (defaultDeadline == null || defaultDeadline.isNegative() || defaultDeadline.isZero())
+            throw new IllegalArgumentException("Default deadline must be positive.");
+
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.defaultDeadline = defaultDeadline;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Runs a call once it is admitted, using the default deadline.
+     *
+     * @see #call(Duration, RequestCall)
+     */
+    public <T> T call(RequestCall<T> call) throws RequestException {
+        return this.call(this.defaultDeadline, call);
+    }
+
+    /**
+     * Waits for a slot, then runs a call in it.
+     * <p>
+     * The deadline bounds the wait only, not the call that runs once admitted.
+     *
+     * @param deadline How long the caller is willing to wait for a slot, or null for the default. A request is also
+     *                 rejected up front if the wait it would face leaves too little of this time to run the call.
+     * @param call     Call to run.
+     * @param <T>      Result type of the call.
+     * @return The result of the call.
+     * @throws RequestRejectedException If the call was not admitted in time.
+     * @throws RequestException         If the call fails.
+     */
+    public <T> T call(Duration deadline, RequestCall<T> call) throws RequestException {
+        this.admit(deadline != null ? deadline : this.defaultDeadline);
+
+        var start = System.nanoTime();
+        try {
+            return call.call();
+        } finally {
+            this.permits.release();
+            this.recordServiceTime(System.nanoTime() - start);
+        }
+    }
+
+    private void admit(Duration deadline) throws RequestRejectedException {
+        var start = System.nanoTime();
+        var deadlineNanos = deadline.toNanos();
+
+        try {
+            // A free slot is taken without queueing. Unlike tryAcquire(), a timed tryAcquire() honours the fair
+            // ordering even with a zero timeout, so this never overtakes requests that are already waiting
+            if (!this.permits.tryAcquire(0, TimeUnit.NANOSECONDS)) this.await(deadline, deadlineNanos, start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw this.reject("Interrupted while waiting for admission.");
+        }
+
+        this.admitted.increment();
+        this.waitTimes.record(System.nanoTime() - start);
+    }
+
+    private void await(Duration deadline, long deadlineNanos, long start) throws RequestRejectedException, InterruptedException {
+        int depth = this.queued.incrementAndGet();
+        try {
+            this.maxQueueDepth.accumulateAndGet(depth, Math::max);
+            if (depth > this.maxQueued)
+                throw this.reject("Admission queue is full (" + this.maxQueued + " waiting).");
+
+            // Everyone queued ahead of us is served first, maxConcurrent at a time; then our own call has to run
+            var average = this.averageServiceNanos.get();
+            if (average > 0 && average * (depth + this.maxConcurrent - 1) / this.maxConcurrent + average > deadlineNanos)
+                throw this.reject("Request would not complete within its deadline of " + deadline.toMillis() + "ms.");
+
+            if (!this.permits.tryAcquire(deadlineNanos - (System.nanoTime() - start), TimeUnit.NANOSECONDS))
+                throw this.reject("Request was not admitted within its deadline of " + deadline.toMillis() + "ms.");
+        } finally {
+            this.queued.decrementAndGet();
+        }
+    }
+
+    private RequestRejectedException reject(String message) {
+        this.rejected.increment();
+        return new RequestRejectedException(message);
+    }
+
+    private void recordServiceTime(long nanos) {
+        this.averageServiceNanos.updateAndGet(average -> average == 0 ? nanos : average + (nanos - average) / SERVICE_TIME_SMOOTHING);
+    }
+
+    /**
+     * Gets the number of requests currently waiting for a slot.
+     *
+     * @return The current queue depth.
+     */
+    public int getQueueDepth() {
+        return this.queued.get();
+    }
+
+    /**
+     * Gets the largest number of requests that were waiting for a slot at the same time.
+     *
+     * @return The highest queue depth seen.
+     */
+    public int getMaxQueueDepth() {
+        return this.maxQueueDepth.get();
+    }
+
+    /**
+     * Gets the number of requests currently running.
+     *
+     * @return The number of occupied slots.
+     */
+    public int getActiveCount() {
+        return this.maxConcurrent - this.permits.availablePermits();
+    }
+
+    /**
+     * Gets the number of requests admitted so far.
+     *
+     * @return The number of admitted requests.
+     */
+    public long getAdmittedCount() {
+        return this.admitted.sum();
+    }
+
+    /**
+     * Gets the number of requests rejected so far.
+     *
+     * @return The number of rejected requests.
+     */
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * Gets the moving average of how long admitted requests take to run.
+     *
+     * @return The average service time, or zero if no request has completed yet.
+     */
+    public Duration getAverageServiceTime() {
+        return Duration.ofNanos(this.averageServiceNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionController{maxConcurrent=" + this.maxConcurrent
+                + ", maxQueued=" + this.maxQueued
+                + ", active=" + this.getActiveCount()
+                + ", queued=" + this.getQueueDepth()
+                + ", admitted=" + this.getAdmittedCount()
+                + ", rejected=" + this.getRejectedCount()
+                + "}";
+    }
+}
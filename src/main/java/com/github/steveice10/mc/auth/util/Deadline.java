@@ -0,0 +1,134 @@
+package com.github.steveice10.mc.auth.util;
+
+import com.github.steveice10.mc.auth.exception.request.DeadlineExceededException;
+import com.github.steveice10.mc.auth.exception.request.RequestException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which an operation must be done.
+ * <p>
+ * While a deadline is {@link #run(RequestCall) running} an operation, every request the operation makes on the same
+ * thread has its connect and read timeouts cut to the time that is left, and fails with a
+ * {@link DeadlineExceededException} once none is left. This lets one budget cover operations made of several
+ * requests, such as a login or a lookup with retries. Deadlines nest: an inner deadline never extends an outer one.
+ */
+public class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Creates a deadline the given time from now.
+     *
+     * @param timeout Time until the deadline.
+     * @return The new deadline.
+     * @throws IllegalArgumentException If the timeout is null.
+     */
+    public static Deadline after(Duration timeout) {
+        if (timeout == null) throw new IllegalArgumentException("Timeout cannot be null.");
+        return new Deadline(System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * Gets the deadline of the operation running on this thread.
+     *
+     * @return The current deadline, or null if there is none.
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Fails if the operation running on this thread is out of time.
+     *
+     * @throws DeadlineExceededException If the current deadline has passed.
+     */
+    public static void checkCurrent() throws DeadlineExceededException {
+        var current = CURRENT.get();
+        if (current != null && current.isExpired())
+            throw new DeadlineExceededException("Deadline exceeded.");
+    }
+
+    /**
+     * Cuts a timeout down to the time left before the current deadline, if any.
+     *
+     * @param timeoutMillis Timeout to cap, in milliseconds. Zero means no timeout.
+     * @return The capped timeout, in milliseconds. At least 1, so that it never turns into an infinite timeout.
+     */
+    public static int capCurrent(int timeoutMillis) {
+        var current = CURRENT.get();
+        if (current == null) return timeoutMillis;
+
+        var remaining = Math.max(1, TimeUnit.NANOSECONDS.toMillis(current.getRemainingNanos()));
+        return (int) (timeoutMillis <= 0 ? Math.min(remaining, Integer.MAX_VALUE) : Math.min(remaining, timeoutMillis));
+    }
+
+    /**
+     * Runs an operation under this deadline, or under the current one if that is earlier.
+     *
+     * @param call Operation to run.
+     * @param <T>  Result type of the operation.
+     * @return The result of the operation.
+     * @throws DeadlineExceededException If the deadline has already passed, or passes during a request.
+     * @throws RequestException          If the operation fails.
+     */
+    public <T> T run(RequestCall<T> call) throws RequestException {
+        var previous = CURRENT.get();
+        var effective = previous != null && previous.deadlineNanos - this.deadlineNanos < 0 ? previous : this;
+        if (effective.isExpired()) throw new DeadlineExceededException("Deadline exceeded.");
+
+        CURRENT.set(effective);
+        try {
+            return call.call();
+        } finally {
+            if (previous != null) CURRENT.set(previous);
+            else CURRENT.remove();
+        }
+    }
+
+    /**
+     * Binds a call to the deadline of the operation running on this thread, so that it keeps that deadline when it is
+     * run on another thread.
+     *
+     * @param call Call to bind.
+     * @param <T>  Result type of the call.
+     * @return A call that runs the given one under the current deadline, or the given call if there is none.
+     */
+    public static <T> RequestCall<T> propagate(RequestCall<T> call) {
+        var current = CURRENT.get();
+        return current != null ? () -> current.run(call) : call;
+    }
+
+    /**
+     * Gets the time left before this deadline.
+     *
+     * @return The remaining time, zero if the deadline has passed.
+     */
+    public Duration getRemaining() {
+        return Duration.ofNanos(this.getRemainingNanos());
+    }
+
+    private long getRemainingNanos() {
+        return Math.max(0, this.deadlineNanos - System.nanoTime());
+    }
+
+    /**
+     * Gets whether this deadline has passed.
+     *
+     * @return Whether the deadline has passed.
+     */
+    public boolean isExpired() {
+        return this.deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline{remaining=" + this.getRemaining() + "}";
+    }
+}
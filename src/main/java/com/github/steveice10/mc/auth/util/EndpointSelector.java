@@ -0,0 +1,211 @@
+package com.github.steveice10.mc.auth.util;
+
+import lombok.Getter;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the health and latency of several interchangeable base URIs, such as mirrors of the same API, and decides
+ * which one each request should go to.
+ * <p>
+ * The first choice is made with the power of two choices: two healthy base URIs are picked at random, and the one with
+ * the lower cost wins, the cost being its moving average latency scaled by its in-flight requests. The other healthy
+ * base URIs follow as fallbacks in order of cost, and base URIs that recently failed come last, so that a request only
+ * goes to them if everything else failed too.
+ */
+public class EndpointSelector {
+    /**
+     * Weight of the newest sample in the moving average latency.
+     */
+    private static final double LATENCY_SMOOTHING = 0.3;
+
+    @Getter private final Duration cooldown;
+    private final List<Endpoint> endpoints;
+
+    /**
+     * Creates a selector over the given base URIs, with a cooldown of 10 seconds.
+     *
+     * @param baseUris Base URIs to choose between.
+     */
+    public EndpointSelector(List<URI> baseUris) {
+        this(baseUris, Duration.ofSeconds(10));
+    }
+
+    /**
+     * Creates a selector over the given base URIs.
+     *
+     * @param baseUris Base URIs to choose between.
+     * @param cooldown How long a base URI is avoided after a failed request.
+     * @throws IllegalArgumentException If there are no base URIs, or the cooldown is negative.
+     */
+    public EndpointSelector(List<URI> baseUris, Duration cooldown) {
+        if (baseUris == null || baseUris.isEmpty()) throw new IllegalArgumentException("At least one base URI is required.");
+        if (cooldown == null || cooldown.isNegative()) throw new IllegalArgumentException("Cooldown cannot be null or negative.");
+
+        var endpoints = new ArrayList<Endpoint>(baseUris.size());
+        for (var baseUri : baseUris) {
+            if (baseUri == null) throw new IllegalArgumentException("Base URI cannot be null.");
+            endpoints.add(new Endpoint(baseUri));
+        }
+
+        this.endpoints = Collections.unmodifiableList(endpoints);
+        this.cooldown = cooldown;
+    }
+
+    /**
+     * Gets the tracked base URIs, in the order they were given.
+     *
+     * @return The endpoints of this selector.
+     */
+    public List<Endpoint> getEndpoints() {
+        return this.endpoints;
+    }
+
+    /**
+     * Gets the order in which a request should try the base URIs.
+     *
+     * @return Every endpoint, the one to try first at the front.
+     */
+    public List<Endpoint> order() {
+        var now = System.nanoTime();
+        var healthy = new ArrayList<Endpoint>(this.endpoints.size());
+        var cooling = new ArrayList<Endpoint>();
+        // Costs change while other requests run, so sort on a snapshot
+        var costs = new HashMap<Endpoint, Double>();
+        for (var endpoint : this.endpoints) {
+            // Cooling endpoints are ordered by how soon they are due back instead
+            if (endpoint.isHealthy(now)) {
+                healthy.add(endpoint);
+                costs.put(endpoint, endpoint.cost());
+            } else {
+                cooling.add(endpoint);
+                costs.put(endpoint, (double) (endpoint.cooldownUntil - now));
+            }
+        }
+
+        healthy.sort(Comparator.comparingDouble(costs::get));
+        if (healthy.size() > 1) {
+            // Power of two choices: comparing two random picks spreads load better than always taking the cheapest
+            var random = ThreadLocalRandom.current();
+            int a = random.nextInt(healthy.size()), b = random.nextInt(healthy.size() - 1);
+            if (b >= a) b++;
+            healthy.add(0, healthy.remove(Math.min(a, b)));
+        }
+
+        cooling.sort(Comparator.comparingDouble(costs::get));
+        healthy.addAll(cooling);
+        return healthy;
+    }
+
+    @Override
+    public String toString() {
+        return "EndpointSelector{endpoints=" + this.endpoints + "}";
+    }
+
+    /**
+     * A base URI, along with its health and latency.
+     */
+    public class Endpoint {
+        @Getter private final URI baseUri;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile double averageLatencyNanos;
+        private volatile long cooldownUntil;
+        private volatile boolean failed;
+
+        private Endpoint(URI baseUri) {
+            this.baseUri = baseUri;
+        }
+
+        /**
+         * Records that a request to this base URI was sent.
+         */
+        public void onStart() {
+            this.inFlight.incrementAndGet();
+        }
+
+        /**
+         * Records that a request to this base URI got a response, even if that response was an error from the API.
+         *
+         * @param latencyNanos How long the request took, in nanoseconds.
+         */
+        public void onSuccess(long latencyNanos) {
+            this.inFlight.decrementAndGet();
+            synchronized (this) {
+                var average = this.averageLatencyNanos;
+                this.averageLatencyNanos = average == 0 ? latencyNanos : average + (latencyNanos - average) * LATENCY_SMOOTHING;
+            }
+            this.failed = false;
+        }
+
+        /**
+         * Records that a request to this base URI failed to get a response, which takes it out of rotation for the
+         * cooldown.
+         */
+        public void onFailure() {
+            this.inFlight.decrementAndGet();
+            this.cooldownUntil = System.nanoTime() + cooldown.toNanos();
+            this.failed = true;
+        }
+
+        /**
+         * Records that a request to this base URI was abandoned before it got a response, for a reason that says
+         * nothing about the base URI, such as the caller running out of time.
+         */
+        public void onCancel() {
+            this.inFlight.decrementAndGet();
+        }
+
+        /**
+         * Gets whether this base URI is in rotation.
+         *
+         * @return False while the base URI is cooling down after a failure.
+         */
+        public boolean isHealthy() {
+            return this.isHealthy(System.nanoTime());
+        }
+
+        private boolean isHealthy(long now) {
+            return !this.failed || this.cooldownUntil - now <= 0;
+        }
+
+        /**
+         * Gets the moving average latency of requests to this base URI.
+         *
+         * @return The average latency, or zero if no request has completed yet.
+         */
+        public Duration getAverageLatency() {
+            return Duration.ofNanos((long) this.averageLatencyNanos);
+        }
+
+        /**
+         * Gets the number of requests currently in flight to this base URI.
+         *
+         * @return The number of in-flight requests.
+         */
+        public int getInFlight() {
+            return this.inFlight.get();
+        }
+
+        private double cost() {
+            // Untried endpoints cost nothing, so that they get measured
+            return this.averageLatencyNanos * (this.inFlight.get() + 1);
+        }
+
+        @Override
+        public String toString() {
+            return "Endpoint{baseUri=" + this.baseUri
+                    + ", averageLatency=" + this.getAverageLatency()
+                    + ", inFlight=" + this.getInFlight()
+                    + ", healthy=" + this.isHealthy()
+                    + "}";
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.steveice10.mc.auth.util;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Flushes registered token stores when the JVM exits, through a single shutdown hook.
+ * <p>
+ * Stores are held weakly, so registering one does not keep it alive once nothing else uses it. A store with writes
+ * still pending is kept alive by the background task that will write it.
+ */
+final class FlushOnExit {
+    private static final Set<Flushable> REGISTERED = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(FlushOnExit::flushAll, "MSALTokenPersistenceShutdown"));
+    }
+
+    private FlushOnExit() {
+    }
+
+    static void register(Flushable flushable) {
+        REGISTERED.add(flushable);
+    }
+
+    static void unregister(Flushable flushable) {
+        REGISTERED.remove(flushable);
+    }
+
+    private static void flushAll() {
+        ArrayList<Flushable> flushables;
+        synchronized (REGISTERED) {
+            flushables = new ArrayList<>(REGISTERED);
+        }
+
+        for (var flushable : flushables) {
+            try {
+                flushable.flush();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -1,23 +1,31 @@
 package com.github.steveice10.mc.auth.util;
 
 import com.github.steveice10.mc.auth.exception.request.*;
+import com.github.steveice10.mc.auth.jfr.HttpRequestEvent;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
 import lombok.NoArgsConstructor;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
+import java.io.*;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.Proxy;
 import java.net.URI;
-import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Utilities for making HTTP requests.
@@ -25,6 +33,13 @@ import java.util.UUID;
 @NoArgsConstructor
 public class HTTP {
     private static final Gson GSON;
+    private static final int SCAN_BUFFER_SIZE = 8192;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int DECODE_BUFFER_SIZE = 8192;
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final LongAdder WIRE_BYTES_RECEIVED = new LongAdder();
+    private static final LongAdder DECODED_BYTES_RECEIVED = new LongAdder();
+    private static volatile HttpMetrics metrics;
 
     static {
         GSON = new GsonBuilder().registerTypeAdapter(UUID.class, new UUIDSerializer()).create();
@@ -57,26 +72,43 @@ public class HTTP {
      * @throws RequestException         If an error occurs while making the request.
      */
     public static <T> T makeRequest(Proxy proxy, URI uri, Object input, Class<T> responseType, Map<String, String> extraHeaders) throws RequestException {
+        return makeRequest(proxy, uri, input, responseType, extraHeaders, RequestOptions.DEFAULT);
+    }
+
+    /**
+     * Makes an HTTP request.
+     *
+     * @param proxy        Proxy to use when making the request.
+     * @param uri          URI to make the request to.
+     * @param input        Input to provide in the request.
+     * @param responseType Class to provide the response as.
+     * @param <T>          Type to provide the response as.
+     * @param extraHeaders Extra headers to add to the request.
+     * @param options      Options of the request, such as its timeouts.
+     * @return The response of the request.
+     * @throws IllegalArgumentException  If the given proxy, URI or options are null.
+     * @throws DeadlineExceededException If the current {@link Deadline} passes before the request completes.
+     * @throws RequestException          If an error occurs while making the request.
+     */
+    public static <T> T makeRequest(Proxy proxy, URI uri, Object input, Class<T> responseType, Map<String, String> extraHeaders, RequestOptions options) throws RequestException {
         if (proxy == null) throw new IllegalArgumentException("Proxy cannot be null.");
         if (uri == null) throw new IllegalArgumentException("URI cannot be null.");
+        if (options == null) throw new IllegalArgumentException("Options cannot be null.");
+        Deadline.checkCurrent();
 
         JsonElement response;
-        try {
-            response = input == null ? performGetRequest(proxy, uri, extraHeaders) : performPostRequest(proxy, uri, extraHeaders, GSON.toJson(input), "application/json");
-        } catch (IOException e) {
-            throw new ServiceUnavailableException("Could not make request to '" + uri + "'.", e);
-        }
-
-        if (response != null) {
-            checkForError(response);
-            if (responseType != null) return GSON.fromJson(response, responseType);
+        if (input == null) response = execute(proxy, uri, extraHeaders, null, null, options);
+        else try (var body = RequestBody.acquire()) {
+            // Encoded inside the try, so the buffer goes back to the pool even if serializing fails
+            body.writeJson(GSON, input);
+            response = execute(proxy, uri, extraHeaders, body, "application/json", options);
         }
 
-        return null;
+        return convert(uri, response, responseType);
     }
 
     public static <T> T makeRequest(Proxy proxy, URI uri, Object input, Class<T> responseType) throws RequestException {
-        return makeRequest(proxy, uri, input, responseType, new HashMap<>());
+        return makeRequest(proxy, uri, input, responseType, Collections.emptyMap());
     }
 
     /**
@@ -92,36 +124,221 @@ public class HTTP {
      * @throws RequestException         If an error occurs while making the request.
      */
     public static <T> T makeRequestForm(Proxy proxy, URI uri, Map<String, String> input, Class<T> responseType) throws RequestException {
+        return makeRequestForm(proxy, uri, input, responseType, RequestOptions.DEFAULT);
+    }
+
+    /**
+     * Makes an HTTP request as a form.
+     *
+     * @param proxy        Proxy to use when making the request.
+     * @param uri          URI to make the request to.
+     * @param input        Input to provide in the request.
+     * @param responseType Class to provide the response as.
+     * @param <T>          Type to provide the response as.
+     * @param options      Options of the request, such as its timeouts.
+     * @return The response of the request.
+     * @throws IllegalArgumentException  If the given proxy, URI or options are null.
+     * @throws DeadlineExceededException If the current {@link Deadline} passes before the request completes.
+     * @throws RequestException          If an error occurs while making the request.
+     */
+    public static <T> T makeRequestForm(Proxy proxy, URI uri, Map<String, String> input, Class<T> responseType, RequestOptions options) throws RequestException {
         if (proxy == null) throw new IllegalArgumentException("Proxy cannot be null.");
         if (uri == null) throw new IllegalArgumentException("URI cannot be null.");
-
-        var inputString = formMapToString(input);
+        if (options == null) throw new IllegalArgumentException("Options cannot be null.");
+        Deadline.checkCurrent();
 
         JsonElement response;
+        try (var body = RequestBody.acquire()) {
+            body.writeForm(input);
+            response = execute(proxy, uri, Collections.emptyMap(), body, "application/x-www-form-urlencoded", options);
+        }
+
+        return convert(uri, response, responseType);
+    }
+
+    /**
+     * Converts a response to the type the caller expects. A response of some other shape did not come from the API
+     * itself, so it is reported like a response that is not JSON at all.
+     */
+    private static <T> T convert(URI uri, JsonElement response, Class<T> responseType) throws ServiceUnavailableException {
+        if (response == null || responseType == null) return null;
+
         try {
-            response = performPostRequest(proxy, uri, new HashMap<>(), inputString, "application/x-www-form-urlencoded");
-        } catch (IOException e) {
-            throw new ServiceUnavailableException("Could not make request to '" + uri + "'.", e);
+            return GSON.fromJson(response, responseType);
+        } catch (JsonParseException e) {
+            throw new ServiceUnavailableException("Could not parse response of '" + uri + "'.", e);
         }
+    }
+
+    /**
+     * Sends a request and checks its response for errors, recording it to the installed {@link HttpMetrics} and passing
+     * it through the interceptors of its options.
+     *
+     * @param body Body of the request, or null to send a GET request.
+     * @param type Content type of the body.
+     * @return The response, or null if it has no body.
+     */
+    private static JsonElement execute(Proxy proxy, URI uri, Map<String, String> extraHeaders, RequestBody body, String type, RequestOptions options) throws RequestException {
+        var metrics = HTTP.metrics;
+        var interceptors = options.getInterceptors();
+        var exchange = new Exchange(interceptors.isEmpty() ? null : new RequestInterceptor.Request(uri, body == null ? "GET" : "POST", body), interceptors);
+        var event = new HttpRequestEvent();
+        event.begin();
+        var start = System.nanoTime();
+        Throwable error = null;
+        try {
+            var response = body == null ? performGetRequest(proxy, uri, extraHeaders, options, exchange)
+                    : performPostRequest(proxy, uri, extraHeaders, body, type, options, exchange);
+            if (response != null) checkForError(response);
+            exchange.afterBody(response);
+            return response;
+        } catch (IOException e) {
+            error = e;
+            exchange.onError(e);
+            throw requestFailed(uri, e);
+        } catch (RequestException | RuntimeException e) {
+            error = e;
+            exchange.onError(e);
+            throw e;
+        } finally {
+            exchange.end();
+
+            // Responses served from the response cache never reached the network
+            if (metrics != null && !exchange.cached)
+                metrics.record(AdaptiveConcurrencyLimiter.endpointKey(uri), body == null ? "GET" : "POST", exchange.status,
+                        System.nanoTime() - start, body != null ? body.getLength() : 0, exchange.bytesReceived,
+                        error != null ? error.getClass() : null);
 
-        if (response != null) {
-            checkForError(response);
-            if (responseType != null) return GSON.fromJson(response, responseType);
+            if (!exchange.cached && event.shouldCommit()) {
+                event.endpoint = AdaptiveConcurrencyLimiter.endpointKey(uri);
+                event.method = body == null ? "GET" : "POST";
+                event.status = exchange.status;
+                event.bytesSent = body != null ? body.getLength() : 0;
+                event.bytesReceived = exchange.bytesReceived;
+                event.error = error != null ? error.getClass().getName() : null;
+                event.commit();
+            }
         }
+    }
 
-        return null;
+    /**
+     * Installs the metrics that every request made through this class is recorded to.
+     *
+     * @param metrics Metrics to record to, or null to stop recording.
+     */
+    public static void setMetrics(HttpMetrics metrics) {
+        HTTP.metrics = metrics;
+    }
+
+    /**
+     * Gets the metrics that every request made through this class is recorded to.
+     *
+     * @return The installed metrics, or null if none are installed.
+     */
+    public static HttpMetrics getMetrics() {
+        return HTTP.metrics;
     }
 
+    /**
+     * Encodes fields as <code>application/x-www-form-urlencoded</code>.
+     * To send them as a request body, prefer writing them into a {@link RequestBody} directly.
+     *
+     * @param input Fields to encode.
+     * @return The encoded fields.
+     */
     public static String formMapToString(Map<String, String> input) {
-        var inputString = new StringBuilder();
-        for (var inputField : input.entrySet()) {
-            if (inputString.length() > 0) inputString.append("&");
-            try {
-                inputString.append(String.format("%s=%s", URLEncoder.encode(inputField.getKey(), StandardCharsets.UTF_8.toString()), URLEncoder.encode(inputField.getValue(), StandardCharsets.UTF_8.toString())));
-            } catch (UnsupportedEncodingException ignored) {
+        try (var body = RequestBody.acquire()) {
+            return body.writeForm(input).toString();
+        }
+    }
+
+    /**
+     * Scans a text response for the first match of each of the given patterns, in a single pass.
+     * <p>
+     * The stream is read in large chunks and reading stops as soon as every pattern has matched, so the rest of the
+     * response is never downloaded. Matches must be at most <code>maxMatchLength</code> characters long and patterns
+     * must end in a delimiter rather than a greedy quantifier, so that a match found in a partial response is the same
+     * as in the full response.
+     * <p>
+     * Each pattern resumes searching where a match could still start, at most <code>maxMatchLength</code> characters
+     * before the end of the text read so far, so every character is searched a bounded number of times, even in a
+     * response made of a single long line. Only the text a match could still start in is kept in memory.
+     *
+     * @param in             Stream to read. It is closed once scanning is done.
+     * @param maxChars       Maximum number of characters to read before giving up.
+     * @param maxMatchLength Maximum length of a match, in characters.
+     * @param patterns       Patterns to look for. The first capturing group of each match is returned.
+     * @return The first group of each pattern's match, in the order of the patterns, with null for patterns that never matched.
+     * @throws IOException If the stream cannot be read or is longer than the given maximum.
+     */
+    public static String[] scan(InputStream in, int maxChars, int maxMatchLength, Pattern... patterns) throws IOException {
+        if (maxMatchLength <= 0) throw new IllegalArgumentException("Max match length must be positive.");
+
+        var found = new String[patterns.length];
+        var remaining = patterns.length;
+        // Where each pattern resumes searching in the text, as an offset into the text kept so far
+        var from = new int[patterns.length];
+
+        var text = new StringBuilder(SCAN_BUFFER_SIZE);
+        var buffer = new char[SCAN_BUFFER_SIZE];
+        var total = 0;
+
+        try (var reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            var eof = false;
+            while (remaining > 0 && !eof) {
+                var read = reader.read(buffer);
+                if (read < 0) eof = true;
+                else {
+                    if ((total += read) > maxChars)
+                        throw new IOException("Response is longer than " + maxChars + " characters.");
+                    text.append(buffer, 0, read);
+                }
+
+                var keepFrom = text.length();
+                for (int i = 0; i < patterns.length; i++) {
+                    if (found[i] != null) continue;
+
+                    var matcher = patterns[i].matcher(text);
+                    matcher.region(from[i], text.length()).useTransparentBounds(true).useAnchoringBounds(false);
+                    if (matcher.find()) {
+                        // A match touching the end of the text might still change with more input, so wait for it
+                        if (eof || !matcher.hitEnd()) {
+                            found[i] = matcher.group(1);
+                            remaining--;
+                            continue;
+                        }
+                        from[i] = matcher.start();
+                    } else {
+                        // A match yet to come ends past the current text, so it cannot start any earlier than this
+                        from[i] = Math.max(from[i], text.length() - maxMatchLength);
+                    }
+                    keepFrom = Math.min(keepFrom, from[i]);
+                }
+
+                // Drop the text no pattern can match in anymore
+                if (keepFrom > 0) {
+                    text.delete(0, keepFrom);
+                    for (int i = 0; i < from.length; i++) from[i] = Math.max(0, from[i] - keepFrom);
+                }
             }
         }
-        return inputString.toString();
+
+        return found;
+    }
+
+    /**
+     * Gets the exception to throw for a request that failed with an I/O error: a {@link DeadlineExceededException} if
+     * it failed because the current deadline ran out, a {@link ServiceUnavailableException} otherwise.
+     *
+     * @param uri   URI of the request.
+     * @param cause The I/O error.
+     * @return The exception to throw.
+     */
+    public static RequestException requestFailed(URI uri, IOException cause) {
+        var deadline = Deadline.current();
+        if (deadline != null && deadline.isExpired())
+            return new DeadlineExceededException("Deadline exceeded while making request to '" + uri + "'.", cause);
+        return new ServiceUnavailableException("Could not make request to '" + uri + "'.", cause);
     }
 
     private static void checkForError(JsonElement response) throws RequestException {
@@ -141,46 +358,362 @@ public class HTTP {
                         else
                             throw new InvalidCredentialsException(errorMessage);
                     else if (error.equals("authorization_pending")) throw new AuthPendingException(errorMessage);
+                    else if (error.equals("TooManyRequestsException")) throw new TooManyRequestsException(errorMessage);
                     else throw new RequestException(errorMessage);
             }
         }
     }
 
-    private static JsonElement performGetRequest(Proxy proxy, URI uri, Map<String, String> extraHeaders) throws IOException {
-        var connection = createUrlConnection(proxy, uri);
+    private static JsonElement performGetRequest(Proxy proxy, URI uri, Map<String, String> extraHeaders, RequestOptions options, Exchange exchange) throws IOException, RequestException {
+        var cache = options.getResponseCache();
+        var key = cache != null ? HttpResponseCache.key(uri, extraHeaders) : null;
+        var cached = cache != null ? cache.get(key) : null;
+        if (cached != null && cached.isFresh()) {
+            cache.recordHit();
+            exchange.cached = true;
+            return parse(uri, cached.getBody());
+        }
+
+        var connection = createUrlConnection(proxy, uri, options);
+        connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
         for (var header : extraHeaders.entrySet()) connection.setRequestProperty(header.getKey(), header.getValue());
         connection.setDoInput(true);
-        return processResponse(connection);
+        if (cached != null) cached.addValidators(connection);
+        exchange.beforeSend(connection);
+        if (cache == null) return processResponse(uri, connection, exchange);
+
+        var responseCode = exchange.receive(connection);
+        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            discard(connection);
+            return parse(uri, cache.revalidated(key, cached, connection).getBody());
+        }
+        if (responseCode != 200) return processResponse(uri, connection, exchange);
+
+        cache.recordMiss();
+        byte[] body;
+        try (InputStream in = connection.getInputStream()) {
+            body = decode(connection, in, exchange).readAllBytes();
+        }
+        // Parsed first, so that a page that is not JSON never gets cached
+        var response = parse(uri, body);
+        cache.put(key, connection, body);
+        return response;
+    }
+
+    /**
+     * Resolves the host of a URI and opens a connection to it, so that a request made shortly after finds the address
+     * cached, and the connection and TLS session ready for reuse.
+     * <p>
+     * A <code>HEAD</code> request is sent to the root of the URI's origin and its response discarded; whatever the
+     * status, the connection is then kept alive for reuse.
+     *
+     * @param proxy   Proxy to connect through. The host is resolved locally only when connecting directly.
+     * @param uri     URI whose origin to connect to.
+     * @param options Options of the request, such as its timeouts.
+     * @throws IOException If the host cannot be resolved or connected to.
+     */
+    public static void warmUp(Proxy proxy, URI uri, RequestOptions options) throws IOException {
+        if (uri.getHost() == null) throw new IllegalArgumentException("URI must have a host.");
+        if (proxy.type() == Proxy.Type.DIRECT) InetAddress.getAllByName(uri.getHost());
+
+        var connection = createUrlConnection(proxy, URI.create(uri.getScheme() + "://" + uri.getRawAuthority() + "/"), options);
+        connection.setRequestMethod("HEAD");
+        connection.setDoInput(true);
+        discard(connection);
+    }
+
+    private static JsonElement parse(URI uri, byte[] body) throws IOException, ServiceUnavailableException {
+        return parse(uri, new ByteArrayInputStream(body));
+    }
+
+    /**
+     * Parses a response body as JSON. A body that is not JSON, such as the HTML error page of a proxy or load balancer
+     * in front of the API, means that the API itself did not answer.
+     *
+     * @throws IOException                 If reading the body fails.
+     * @throws ServiceUnavailableException If the body is not JSON.
+     */
+    private static JsonElement parse(URI uri, InputStream in) throws IOException, ServiceUnavailableException {
+        try {
+            return GSON.fromJson(new InputStreamReader(in, StandardCharsets.UTF_8), JsonElement.class);
+        } catch (JsonIOException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new ServiceUnavailableException("Could not read response of '" + uri + "'.", e);
+        } catch (JsonParseException e) {
+            throw new ServiceUnavailableException("Could not parse response of '" + uri + "'.", e);
+        }
+    }
+
+    /**
+     * Reads and discards what is left of a response, so that the connection can be reused.
+     */
+    private static void discard(HttpURLConnection connection) throws IOException {
+        try (InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) in.transferTo(OutputStream.nullOutputStream());
+        }
     }
 
-    private static JsonElement performPostRequest(Proxy proxy, URI uri, Map<String, String> extraHeaders, String post, String type) throws IOException {
-        var bytes = post.getBytes(StandardCharsets.UTF_8);
-        var connection = createUrlConnection(proxy, uri);
+    private static JsonElement performPostRequest(Proxy proxy, URI uri, Map<String, String> extraHeaders, RequestBody body, String type, RequestOptions options, Exchange exchange) throws IOException, RequestException {
+        var connection = createUrlConnection(proxy, uri, options);
 
         // Set properties
         connection.setRequestProperty("Content-Type", type + "; charset=utf-8");
-        connection.setRequestProperty("Content-Length", String.valueOf(bytes.length));
+        connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
         for (var header : extraHeaders.entrySet()) connection.setRequestProperty(header.getKey(), header.getValue());
 
         // Do the thing
         connection.setDoInput(true);
-        connection.setDoOutput(true);
-        connection.getOutputStream().write(bytes);
+        exchange.beforeSend(connection);
+        body.send(connection);
 
-        return processResponse(connection);
+        return processResponse(uri, connection, exchange);
     }
 
     public static HttpURLConnection createUrlConnection(Proxy proxy, URI uri) throws IOException {
+        return createUrlConnection(proxy, uri, RequestOptions.DEFAULT);
+    }
+
+    /**
+     * Opens a connection using the timeouts of the given options, cut down to the time left before the current
+     * {@link Deadline}, if any.
+     *
+     * @param proxy   Proxy to connect through.
+     * @param uri     URI to connect to.
+     * @param options Options of the request.
+     * @return The connection, not yet connected.
+     * @throws IOException If the connection could not be opened.
+     */
+    public static HttpURLConnection createUrlConnection(Proxy proxy, URI uri, RequestOptions options) throws IOException {
         var connection = (HttpURLConnection) uri.toURL().openConnection(proxy);
-        connection.setConnectTimeout(15000);
-        connection.setReadTimeout(15000);
+        connection.setConnectTimeout(Deadline.capCurrent((int) Math.min(options.getConnectTimeout().toMillis(), Integer.MAX_VALUE)));
+        connection.setReadTimeout(Deadline.capCurrent((int) Math.min(options.getReadTimeout().toMillis(), Integer.MAX_VALUE)));
+        // Caching is up to HttpResponseCache, never a system-wide java.net.ResponseCache
         connection.setUseCaches(false);
         return connection;
     }
 
-    private static JsonElement processResponse(HttpURLConnection connection) throws IOException {
-        try (InputStream in = connection.getResponseCode() == 200 ? connection.getInputStream() : connection.getErrorStream()) {
-            return in != null ? GSON.fromJson(new InputStreamReader(in), JsonElement.class) : null;
+    private static JsonElement processResponse(URI uri, HttpURLConnection connection, Exchange exchange) throws IOException, RequestException {
+        var responseCode = exchange.receive(connection);
+        if (responseCode == HTTP_TOO_MANY_REQUESTS) {
+            discard(connection);
+            throw new TooManyRequestsException("Too many requests to '" + connection.getURL() + "'.");
+        }
+        // Whatever the body says, a server error means this endpoint cannot serve the request right now
+        if (responseCode >= 500) {
+            discard(connection);
+            throw new ServiceUnavailableException("Server error " + responseCode + " from '" + connection.getURL() + "'.");
+        }
+
+        try (InputStream in = responseCode == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+            return in != null ? parse(uri, decode(connection, in, exchange)) : null;
+        }
+    }
+
+    /**
+     * Wraps a response body so that it is decompressed as it is read, according to the response's
+     * <code>Content-Encoding</code>. Bytes are counted both as received and after decoding.
+     *
+     * @param connection Connection the body belongs to.
+     * @param in         Raw body of the response.
+     * @return A stream of the decoded body.
+     * @throws IOException If the compressed body is malformed.
+     */
+    public static InputStream decode(HttpURLConnection connection, InputStream in) throws IOException {
+        return decode(connection, in, null);
+    }
+
+    private static InputStream decode(HttpURLConnection connection, InputStream in, Exchange exchange) throws IOException {
+        InputStream wire = new CountingInputStream(in, WIRE_BYTES_RECEIVED, exchange);
+
+        var encoding = connection.getContentEncoding();
+        if (encoding != null) encoding = encoding.trim().toLowerCase(Locale.ROOT);
+
+        InputStream decoded;
+        if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+            decoded = new GZIPInputStream(wire, DECODE_BUFFER_SIZE);
+        } else if ("deflate".equals(encoding)) {
+            // Deflate is meant to be zlib-wrapped, but some servers send raw deflate data; zlib data starts with 0x78
+            var pushback = new PushbackInputStream(wire, 1);
+            var first = pushback.read();
+            if (first >= 0) pushback.unread(first);
+            var inflater = new Inflater(first != 0x78);
+            decoded = new InflaterInputStream(pushback, inflater, DECODE_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    // A custom inflater is not released by InflaterInputStream itself
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        } else {
+            decoded = wire;
+        }
+
+        return new CountingInputStream(decoded, DECODED_BYTES_RECEIVED, null);
+    }
+
+    /**
+     * Gets the number of response body bytes received over the network so far, before decompression.
+     *
+     * @return The number of bytes received.
+     */
+    public static long getWireBytesReceived() {
+        return WIRE_BYTES_RECEIVED.sum();
+    }
+
+    /**
+     * Gets the number of response body bytes received so far, after decompression.
+     * Compared with {@link #getWireBytesReceived()}, this shows how much compression saves.
+     *
+     * @return The number of decoded bytes.
+     */
+    public static long getDecodedBytesReceived() {
+        return DECODED_BYTES_RECEIVED.sum();
+    }
+
+    /**
+     * What is known about a request in progress, for {@link HttpMetrics} and the request's interceptors.
+     */
+    private static class Exchange {
+        /**
+         * The request as seen by the interceptors, or null if there are none.
+         */
+        private final RequestInterceptor.Request request;
+        private final List<RequestInterceptor> interceptors;
+        private int status = -1;
+        private boolean received;
+        private long bytesReceived;
+        private boolean cached;
+        /**
+         * Exceptions thrown by the interceptors' hooks. They do not fail the request, but are attached to its error if
+         * it fails for another reason.
+         */
+        private List<RuntimeException> hookFailures;
+
+        private Exchange(RequestInterceptor.Request request, List<RequestInterceptor> interceptors) {
+            this.request = request;
+            this.interceptors = interceptors;
+        }
+
+        private void beforeSend(HttpURLConnection connection) {
+            if (this.request == null) return;
+
+            this.request.setConnection(connection);
+            for (var interceptor : this.interceptors) {
+                try {
+                    interceptor.beforeSend(this.request);
+                } catch (RuntimeException e) {
+                    this.hookFailed(e);
+                }
+            }
+        }
+
+        private void hookFailed(RuntimeException e) {
+            if (this.hookFailures == null) this.hookFailures = new ArrayList<>(1);
+            this.hookFailures.add(e);
+        }
+
+        /**
+         * Ends the request for the interceptors. The request body goes back to its pool right after, so it must no
+         * longer be reachable through the request.
+         */
+        private void end() {
+            if (this.request != null) this.request.releaseBody();
+        }
+
+        /**
+         * Waits for the status and headers of the response.
+         *
+         * @return The status of the response.
+         */
+        private int receive(HttpURLConnection connection) throws IOException {
+            if (this.received) return this.status;
+
+            this.status = connection.getResponseCode();
+            this.received = true;
+            if (this.request != null) {
+                this.request.setStatus(this.status);
+                for (var interceptor : this.interceptors) {
+                    try {
+                        interceptor.afterHeaders(this.request);
+                    } catch (RuntimeException e) {
+                        this.hookFailed(e);
+                    }
+                }
+            }
+            return this.status;
+        }
+
+        private void afterBody(JsonElement response) {
+            // Responses served from the response cache never reached the network
+            if (this.request == null || this.cached) return;
+
+            this.request.setResponse(response);
+            for (var interceptor : this.interceptors) {
+                try {
+                    interceptor.afterBody(this.request);
+                } catch (RuntimeException e) {
+                    // The request succeeded, which a failing interceptor must not change
+                    this.hookFailed(e);
+                }
+            }
+        }
+
+        private void onError(Throwable error) {
+            if (this.request == null || this.cached) return;
+
+            if (this.hookFailures != null) for (var failure : this.hookFailures) error.addSuppressed(failure);
+            for (var interceptor : this.interceptors) {
+                try {
+                    interceptor.onError(this.request, error);
+                } catch (RuntimeException e) {
+                    // The request already failed, report that rather than the interceptor's failure
+                    error.addSuppressed(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read through a stream.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final LongAdder counter;
+        private final Exchange exchange;
+
+        private CountingInputStream(InputStream in, LongAdder counter, Exchange exchange) {
+            super(in);
+            this.counter = counter;
+            this.exchange = exchange;
+        }
+
+        private void count(long bytes) {
+            this.counter.add(bytes);
+            if (this.exchange != null) this.exchange.bytesReceived += bytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = super.read();
+            if (b >= 0) this.count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var read = super.read(b, off, len);
+            if (read > 0) this.count(read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            var skipped = super.skip(n);
+            if (skipped > 0) this.count(skipped);
+            return skipped;
         }
     }
 }
@@ -0,0 +1,25 @@
+package com.github.steveice10.mc.auth.util;
+
+/**
+ * Receives a record of every request made through {@link HTTP}, installed with {@link HTTP#setMetrics(HttpMetrics)}.
+ * <p>
+ * {@link #record} is called on the thread that made the request, right after it completed, so implementations must be
+ * thread-safe and should return quickly. {@link InMemoryHttpMetrics} is a ready-made implementation.
+ */
+@FunctionalInterface
+public interface HttpMetrics {
+    /**
+     * Records a completed request.
+     *
+     * @param endpoint      Endpoint of the request, as given by {@link AdaptiveConcurrencyLimiter#endpointKey(java.net.URI)},
+     *                      so that requests differing only by an ID are grouped together.
+     * @param method        HTTP method of the request.
+     * @param status        HTTP status of the response, or -1 if no response was received.
+     * @param durationNanos How long the request took, from sending it to reading the response, in nanoseconds.
+     * @param bytesSent     Size of the request body, in bytes.
+     * @param bytesReceived Size of the response body as received, before decompression, in bytes.
+     * @param error         Type of the exception the request failed with, or null if it succeeded. For network
+     *                      failures, this is the type of the underlying I/O exception, such as a socket timeout.
+     */
+    void record(String endpoint, String method, int status, long durationNanos, long bytesSent, long bytesReceived, Class<? extends Throwable> error);
+}
@@ -0,0 +1,306 @@
+package com.github.steveice10.mc.auth.util;
+
+import lombok.Getter;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded, in-memory cache of successful GET responses, used through
+ * {@link RequestOptions#withResponseCache(HttpResponseCache)}.
+ * <p>
+ * Responses are cached according to their <code>Cache-Control</code>, <code>Expires</code>, <code>ETag</code> and
+ * <code>Last-Modified</code> headers. While a cached response is fresh it is used without making a request; once it
+ * is stale, the request is made conditional with <code>If-None-Match</code> and <code>If-Modified-Since</code>, and a
+ * <code>304 Not Modified</code> answer reuses the cached body. Responses marked <code>no-store</code>, and responses
+ * that can neither stay fresh nor be revalidated, are not kept.
+ * <p>
+ * Responses are keyed by URI and request headers, so responses to different access tokens are never mixed up. When
+ * the bodies held exceed the maximum size, the least recently used responses are evicted.
+ */
+public class HttpResponseCache {
+    /**
+     * Approximate bookkeeping cost of an entry, in bytes, counted towards the maximum size.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    @Getter private final long maxSize;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize Maximum total size of the cached responses, in bytes.
+     * @throws IllegalArgumentException If the maximum size is not positive.
+     */
+    public HttpResponseCache(long maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("Max size must be positive.");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the cache key of a request.
+     *
+     * @param uri     URI of the request.
+     * @param headers Headers of the request.
+     * @return The key of the request.
+     */
+    static String key(URI uri, Map<String, String> headers) {
+        if (headers.isEmpty()) return uri.toString();
+
+        var key = new StringBuilder(uri.toString());
+        for (var header : new TreeMap<>(headers).entrySet())
+            key.append('\n').append(header.getKey().toLowerCase(Locale.ROOT)).append(": ").append(header.getValue());
+        return key.toString();
+    }
+
+    /**
+     * Looks up a cached response.
+     *
+     * @param key Key of the request.
+     * @return The cached response, fresh or stale, or null if there is none.
+     */
+    synchronized Entry get(String key) {
+        return this.entries.get(key);
+    }
+
+    /**
+     * Stores a response that was just received, or removes the cached one if the new response may not be kept.
+     *
+     * @param key        Key of the request.
+     * @param connection Connection the response was received on.
+     * @param body       Decoded body of the response.
+     */
+    void put(String key, HttpURLConnection connection, byte[] body) {
+        var entry = Entry.of(connection, body);
+        synchronized (this) {
+            var previous = this.entries.remove(key);
+            if (previous != null) this.size -= this.weigh(key, previous);
+            if (entry != null && this.weigh(key, entry) <= this.maxSize) {
+                this.entries.put(key, entry);
+                this.size += this.weigh(key, entry);
+                this.evict();
+            }
+        }
+    }
+
+    /**
+     * Refreshes a cached response after the server confirmed it is unchanged.
+     *
+     * @param key        Key of the request.
+     * @param cached     The cached response that was revalidated.
+     * @param connection Connection the <code>304</code> response was received on.
+     * @return The refreshed response.
+     */
+    Entry revalidated(String key, Entry cached, HttpURLConnection connection) {
+        this.revalidations.increment();
+        var entry = cached.refresh(connection);
+        synchronized (this) {
+            // Another thread may have replaced or evicted it meanwhile, in which case that takes precedence
+            if (this.entries.get(key) == cached) this.entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    void recordHit() {
+        this.hits.increment();
+    }
+
+    void recordMiss() {
+        this.misses.increment();
+    }
+
+    private long weigh(String key, Entry entry) {
+        return (long) key.length() * 2 + entry.body.length + ENTRY_OVERHEAD;
+    }
+
+    private void evict() {
+        var iterator = this.entries.entrySet().iterator();
+        while (this.size > this.maxSize && iterator.hasNext()) {
+            var eldest = iterator.next();
+            this.size -= this.weigh(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes every cached response.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.size = 0;
+    }
+
+    /**
+     * Gets the total size of the cached responses.
+     *
+     * @return The size of the cache, in bytes.
+     */
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Gets the number of cached responses.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int getEntryCount() {
+        return this.entries.size();
+    }
+
+    /**
+     * Gets the number of requests answered from the cache without contacting the server.
+     *
+     * @return The number of hits.
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Gets the number of requests the server answered with <code>304 Not Modified</code>.
+     *
+     * @return The number of revalidations.
+     */
+    public long getRevalidationCount() {
+        return this.revalidations.sum();
+    }
+
+    /**
+     * Gets the number of requests that had to download a full response.
+     *
+     * @return The number of misses.
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "HttpResponseCache{size=" + this.getSize()
+                + ", maxSize=" + this.maxSize
+                + ", entries=" + this.getEntryCount()
+                + ", hits=" + this.getHitCount()
+                + ", revalidations=" + this.getRevalidationCount()
+                + ", misses=" + this.getMissCount()
+                + "}";
+    }
+
+    /**
+     * A cached response.
+     */
+    static class Entry {
+        private final byte[] body;
+        private final String etag;
+        private final long lastModified;
+        private final long freshUntilNanos;
+
+        private Entry(byte[] body, String etag, long lastModified, long freshUntilNanos) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.freshUntilNanos = freshUntilNanos;
+        }
+
+        /**
+         * Creates an entry from a response.
+         *
+         * @return The entry, or null if the response may not be cached, or would be of no use.
+         */
+        private static Entry of(HttpURLConnection connection, byte[] body) {
+            var control = connection.getHeaderField("Cache-Control");
+            if (hasDirective(control, "no-store")) return null;
+
+            var etag = connection.getHeaderField("ETag");
+            var lastModified = connection.getLastModified();
+            var freshUntil = freshUntil(connection, control);
+            if (etag == null && lastModified == 0 && freshUntil - System.nanoTime() <= 0) return null;
+
+            return new Entry(body, etag, lastModified, freshUntil);
+        }
+
+        private Entry refresh(HttpURLConnection connection) {
+            // A 304 may carry updated validators and freshness, but never a body
+            var etag = connection.getHeaderField("ETag");
+            var lastModified = connection.getLastModified();
+            return new Entry(this.body, etag != null ? etag : this.etag, lastModified != 0 ? lastModified : this.lastModified,
+                    freshUntil(connection, connection.getHeaderField("Cache-Control")));
+        }
+
+        private static long freshUntil(HttpURLConnection connection, String control) {
+            var now = System.nanoTime();
+            if (hasDirective(control, "no-cache")) return now;
+
+            var lifetimeMillis = -1L;
+            var maxAge = directiveValue(control, "max-age");
+            if (maxAge >= 0) lifetimeMillis = TimeUnit.SECONDS.toMillis(maxAge);
+            else {
+                var expires = connection.getExpiration();
+                var date = connection.getDate();
+                if (expires != 0) lifetimeMillis = expires - (date != 0 ? date : System.currentTimeMillis());
+            }
+            if (lifetimeMillis <= 0) return now;
+
+            // Time the response already spent in caches on the way
+            var age = connection.getHeaderFieldLong("Age", 0);
+            lifetimeMillis -= TimeUnit.SECONDS.toMillis(Math.max(0, age));
+            return lifetimeMillis > 0 ? now + TimeUnit.MILLISECONDS.toNanos(lifetimeMillis) : now;
+        }
+
+        private static boolean hasDirective(String control, String directive) {
+            return directiveValue(control, directive) != Long.MIN_VALUE;
+        }
+
+        /**
+         * Finds a <code>Cache-Control</code> directive.
+         *
+         * @return The directive's numeric value, -1 if it has none or it is not a number, or Long.MIN_VALUE if the
+         * directive is absent.
+         */
+        private static long directiveValue(String control, String directive) {
+            if (control == null) return Long.MIN_VALUE;
+
+            for (var part : control.split(",")) {
+                var equals = part.indexOf('=');
+                var name = (equals >= 0 ? part.substring(0, equals) : part).trim();
+                if (!name.equalsIgnoreCase(directive)) continue;
+                if (equals < 0) return -1;
+
+                try {
+                    return Long.parseLong(part.substring(equals + 1).trim().replace("\"", ""));
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+            return Long.MIN_VALUE;
+        }
+
+        boolean isFresh() {
+            return this.freshUntilNanos - System.nanoTime() > 0;
+        }
+
+        byte[] getBody() {
+            return this.body;
+        }
+
+        /**
+         * Adds the validators of this response to a request, making it conditional.
+         */
+        void addValidators(HttpURLConnection connection) {
+            if (this.etag != null) connection.setRequestProperty("If-None-Match", this.etag);
+            if (this.lastModified != 0) connection.setIfModifiedSince(this.lastModified);
+        }
+    }
+}
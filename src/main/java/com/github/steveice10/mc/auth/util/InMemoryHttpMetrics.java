@@ -0,0 +1,170 @@
+package com.github.steveice10.mc.auth.util;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link HttpMetrics} that keeps per-endpoint counters and latency histograms in memory, to be scraped by the
+ * application.
+ * <p>
+ * Recording is lock-free: counters are {@link LongAdder}s and latencies go to a {@link LatencyHistogram}. Only the
+ * first request to a new endpoint, status or exception type allocates.
+ */
+public class InMemoryHttpMetrics implements HttpMetrics {
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(String endpoint, String method, int status, long durationNanos, long bytesSent, long bytesReceived, Class<? extends Throwable> error) {
+        var metrics = this.endpoints.get(endpoint);
+        if (metrics == null) metrics = this.endpoints.computeIfAbsent(endpoint, Endpoint::new);
+        metrics.record(status, durationNanos, bytesSent, bytesReceived, error);
+    }
+
+    /**
+     * Gets the metrics of every endpoint requests were made to.
+     *
+     * @return The metrics of each endpoint, keyed and sorted by endpoint.
+     */
+    public Map<String, Endpoint> getEndpoints() {
+        return Collections.unmodifiableMap(new TreeMap<>(this.endpoints));
+    }
+
+    /**
+     * Gets the metrics of an endpoint.
+     *
+     * @param endpoint Endpoint to get the metrics of.
+     * @return The metrics of the endpoint, or null if no request was made to it.
+     */
+    public Endpoint getEndpoint(String endpoint) {
+        return this.endpoints.get(endpoint);
+    }
+
+    /**
+     * Discards everything recorded so far.
+     */
+    public void reset() {
+        this.endpoints.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryHttpMetrics{endpoints=" + this.getEndpoints().values() + "}";
+    }
+
+    /**
+     * Metrics of the requests to a single endpoint.
+     */
+    public static class Endpoint {
+        @Getter private final String endpoint;
+        /**
+         * Latency of every request, successful or not.
+         */
+        @Getter private final LatencyHistogram latencies = new LatencyHistogram();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        private final Map<String, LongAdder> exceptions = new ConcurrentHashMap<>();
+
+        private Endpoint(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        private void record(int status, long durationNanos, long bytesSent, long bytesReceived, Class<? extends Throwable> error) {
+            this.requests.increment();
+            this.latencies.record(durationNanos);
+            this.bytesSent.add(bytesSent);
+            this.bytesReceived.add(bytesReceived);
+            if (status >= 0) increment(this.statuses, status);
+            if (error != null) {
+                this.errors.increment();
+                increment(this.exceptions, error.getName());
+            }
+        }
+
+        private static <K> void increment(Map<K, LongAdder> counters, K key) {
+            var counter = counters.get(key);
+            if (counter == null) counter = counters.computeIfAbsent(key, k -> new LongAdder());
+            counter.increment();
+        }
+
+        /**
+         * Gets the number of requests made to this endpoint.
+         *
+         * @return The number of requests.
+         */
+        public long getRequestCount() {
+            return this.requests.sum();
+        }
+
+        /**
+         * Gets the number of requests to this endpoint that failed, whether or not a response was received.
+         *
+         * @return The number of failed requests.
+         */
+        public long getErrorCount() {
+            return this.errors.sum();
+        }
+
+        /**
+         * Gets the total size of the request bodies sent to this endpoint.
+         *
+         * @return The number of bytes sent.
+         */
+        public long getBytesSent() {
+            return this.bytesSent.sum();
+        }
+
+        /**
+         * Gets the total size of the response bodies received from this endpoint, before decompression.
+         *
+         * @return The number of bytes received.
+         */
+        public long getBytesReceived() {
+            return this.bytesReceived.sum();
+        }
+
+        /**
+         * Gets how many responses of each HTTP status this endpoint returned.
+         *
+         * @return The number of responses, by status.
+         */
+        public Map<Integer, Long> getStatusCounts() {
+            return snapshot(this.statuses);
+        }
+
+        /**
+         * Gets how many requests to this endpoint failed with each type of exception.
+         *
+         * @return The number of failures, by fully qualified exception class name.
+         */
+        public Map<String, Long> getExceptionCounts() {
+            return snapshot(this.exceptions);
+        }
+
+        private static <K> Map<K, Long> snapshot(Map<K, LongAdder> counters) {
+            var snapshot = new TreeMap<K, Long>();
+            for (var counter : counters.entrySet()) snapshot.put(counter.getKey(), counter.getValue().sum());
+            return Collections.unmodifiableMap(snapshot);
+        }
+
+        @Override
+        public String toString() {
+            return "Endpoint{endpoint=" + this.endpoint
+                    + ", requests=" + this.getRequestCount()
+                    + ", errors=" + this.getErrorCount()
+                    + ", bytesSent=" + this.getBytesSent()
+                    + ", bytesReceived=" + this.getBytesReceived()
+                    + ", statuses=" + this.getStatusCounts()
+                    + ", exceptions=" + this.getExceptionCounts()
+                    + ", latencies=" + this.latencies
+                    + "}";
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.steveice10.mc.auth.util;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Timing claims of a JSON Web Token, read locally without verifying the token or contacting any server.
+ * <p>
+ * Only the <code>exp</code> and <code>iat</code> claims are extracted, by scanning the decoded payload rather than
+ * running it through a JSON parser.
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class JwtToken {
+    private final String token;
+    /**
+     * When the token expires, or null if it has no <code>exp</code> claim.
+     */
+    private final Instant expiresAt;
+    /**
+     * When the token was issued, or null if it has no <code>iat</code> claim.
+     */
+    private final Instant issuedAt;
+
+    /**
+     * Reads the timing claims of a token.
+     *
+     * @param token Token to read.
+     * @return The token's claims, or null if the token is not a well-formed JWT.
+     */
+    public static JwtToken parse(String token) {
+        if (token == null) return null;
+
+        int first = token.indexOf('.'), second = token.indexOf('.', first + 1);
+        if (first <= 0 || second < 0) return null;
+
+        String payload;
+        try {
+            payload = new String(java.util.Base64.getUrlDecoder().decode(token.substring(first + 1, second)), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        return new JwtToken(token, readEpochClaim(payload, "exp"), readEpochClaim(payload, "iat"));
+    }
+
+    /**
+     * Finds a numeric claim holding seconds since the epoch.
+     *
+     * @return The claim as an instant, or null if it is missing or not a number.
+     */
+    private static Instant readEpochClaim(String payload, String name) {
+        var quoted = '"' + name + '"';
+        for (int index = payload.indexOf(quoted); index >= 0; index = payload.indexOf(quoted, index + 1)) {
+            int i = skipWhitespace(payload, index + quoted.length());
+            // Only a key is followed by a colon; otherwise this was a string value that happens to match
+            if (i >= payload.length() || payload.charAt(i) != ':') continue;
+
+            i = skipWhitespace(payload, i + 1);
+            long seconds = 0;
+            int start = i;
+            while (i < payload.length() && payload.charAt(i) >= '0' && payload.charAt(i) <= '9' && i - start < 18)
+                seconds = seconds * 10 + (payload.charAt(i++) - '0');
+
+            return i > start ? Instant.ofEpochSecond(seconds) : null;
+        }
+        return null;
+    }
+
+    private static int skipWhitespace(String string, int index) {
+        while (index < string.length() && Character.isWhitespace(string.charAt(index))) index++;
+        return index;
+    }
+
+    /**
+     * Gets whether the token will still be valid after the given margin has passed.
+     *
+     * @param margin Time the token must remain valid for.
+     * @return False if the token expires within the margin, or has no expiry claim to tell.
+     */
+    public boolean isValidFor(Duration margin) {
+        return this.expiresAt != null && Instant.now().plus(margin).isBefore(this.expiresAt);
+    }
+
+    @Override
+    public String toString() {
+        return "JwtToken{expiresAt=" + this.expiresAt + ", issuedAt=" + this.issuedAt + "}";
+    }
+}
@@ -0,0 +1,130 @@
+package com.github.steveice10.mc.auth.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations, used to report latency percentiles.
+ * <p>
+ * Values are recorded in nanoseconds into log-linear buckets: every power of two is split into
+ * {@value #SUB_BUCKETS} equal buckets, which keeps the relative error of a reported percentile below ~6%.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 42; // ~73 minutes in nanoseconds
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        var exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+
+        var shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+
+        var shift = bucket / SUB_BUCKETS - 1;
+        return ((long) (bucket % SUB_BUCKETS + SUB_BUCKETS + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos Duration in nanoseconds. Negative values are recorded as zero.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+
+        this.buckets.incrementAndGet(bucketOf(nanos));
+        this.count.increment();
+        this.sum.add(nanos);
+        this.max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param duration Duration to record.
+     * @param unit     Unit of the duration.
+     */
+    public void record(long duration, TimeUnit unit) {
+        this.record(unit.toNanos(duration));
+    }
+
+    /**
+     * Gets the number of recorded durations.
+     *
+     * @return The number of recorded durations.
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * Gets the mean of the recorded durations.
+     *
+     * @return The mean in nanoseconds, or 0 if nothing has been recorded.
+     */
+    public long getMean() {
+        var count = this.count.sum();
+        return count > 0 ? this.sum.sum() / count : 0;
+    }
+
+    /**
+     * Gets the longest recorded duration.
+     *
+     * @return The maximum in nanoseconds, or 0 if nothing has been recorded.
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Gets a percentile of the recorded durations.
+     * <p>
+     * While values are being recorded concurrently, the result is an approximation over a moving snapshot.
+     *
+     * @param percentile Percentile to get, between 0 and 100.
+     * @return The upper bound of the bucket holding the percentile in nanoseconds, or 0 if nothing has been recorded.
+     * @throws IllegalArgumentException If the percentile is out of range.
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+
+        var counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += counts[i] = this.buckets.get(i);
+        if (total == 0) return 0;
+
+        var rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            if ((seen += counts[i]) >= rank)
+                return Math.min(upperBoundOf(i), this.getMax());
+
+        return this.getMax();
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{count=" + this.getCount()
+                + ", meanMs=" + TimeUnit.NANOSECONDS.toMillis(this.getMean())
+                + ", p50Ms=" + TimeUnit.NANOSECONDS.toMillis(this.getPercentile(50))
+                + ", p99Ms=" + TimeUnit.NANOSECONDS.toMillis(this.getPercentile(99))
+                + ", maxMs=" + TimeUnit.NANOSECONDS.toMillis(this.getMax())
+                + "}";
+    }
+}
@@ -0,0 +1,154 @@
+package com.github.steveice10.mc.auth.util;
+
+import com.microsoft.aad.msal4j.IAccount;
+import com.microsoft.aad.msal4j.PublicClientApplication;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the accounts cached by an MSAL {@link PublicClientApplication}, keyed by username.
+ * <p>
+ * Looking up an account through {@link PublicClientApplication#getAccounts()} scans the whole token cache under
+ * MSAL's cache lock. This index does that scan once, keeps itself up to date with the accounts returned by token
+ * requests, and only rescans when a username is not found (for example because another process added it to a
+ * shared token cache). Misses rescan at most once every {@link #RESCAN_INTERVAL}, so looking up many unknown
+ * usernames does not rescan the cache for each of them. All lookups are asynchronous and never block the caller.
+ * <p>
+ * Services sharing the same application should share the same index, see {@link #of(PublicClientApplication)}. The
+ * index only holds its application weakly, so it does not keep an application alive once its services are gone.
+ */
+public class MSALAccountIndex {
+    /**
+     * Shortest time between two rescans caused by usernames that were not found.
+     */
+    public static final Duration RESCAN_INTERVAL = Duration.ofSeconds(5);
+    private static final Map<PublicClientApplication, MSALAccountIndex> INDEXES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final WeakReference<PublicClientApplication> app;
+    private final Map<String, IAccount> accounts = new ConcurrentHashMap<>();
+    private volatile CompletableFuture<Void> loading;
+    /**
+     * When the most recent rescan started, as given by {@link System#nanoTime()}.
+     */
+    private volatile long refreshedAt;
+
+    /**
+     * Creates a new index for the given application. Prefer {@link #of(PublicClientApplication)}.
+     *
+     * @param app Application whose token cache to index.
+     */
+    public MSALAccountIndex(PublicClientApplication app) {
+        this.app = new WeakReference<>(app);
+    }
+
+    /**
+     * Gets the shared index of an application, creating it if needed.
+     *
+     * @param app Application whose token cache to index.
+     * @return The application's index.
+     */
+    public static MSALAccountIndex of(PublicClientApplication app) {
+        return INDEXES.computeIfAbsent(app, MSALAccountIndex::new);
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Finds the cached account with the given username.
+     *
+     * @param username Username of the account, compared case-insensitively.
+     * @return A future completing with the account, or with null if MSAL has no account with that username. An account
+     * added to the token cache by someone else may go unnoticed for up to {@link #RESCAN_INTERVAL}.
+     */
+    public CompletableFuture<IAccount> find(String username) {
+        if (username == null || username.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        var key = key(username);
+        var loading = this.loading;
+        if (loading == null || loading.isCompletedExceptionally()) loading = this.refresh();
+
+        var lookup = loading.thenApply(v -> this.accounts.get(key));
+        return lookup.thenCompose(account -> {
+            if (account != null) return CompletableFuture.completedFuture(account);
+
+            // Not known yet: the cache may have gained the account behind our back, so rescan, unless that was just done
+            if (System.nanoTime() - this.refreshedAt < RESCAN_INTERVAL.toNanos() && !this.isRefreshing())
+                return CompletableFuture.completedFuture(null);
+            return this.refresh().thenApply(v -> this.accounts.get(key));
+        });
+    }
+
+    /**
+     * Rebuilds the index from the application's token cache. Concurrent calls share a single rescan.
+     *
+     * @return A future completing once the index has been rebuilt.
+     */
+    public synchronized CompletableFuture<Void> refresh() {
+        if (this.isRefreshing()) return this.loading;
+
+        var app = this.app.get();
+        if (app == null) return CompletableFuture.completedFuture(null);
+
+        this.refreshedAt = System.nanoTime();
+        // Only entries already there before the scan may be dropped for missing from it: an account put while the
+        // scan runs, by a login that finished meanwhile, may be newer than the scan
+        var previous = new HashMap<>(this.accounts);
+        var refresh = app.getAccounts().thenAccept(accounts -> {
+            var current = new HashSet<String>();
+            for (var account : accounts) {
+                if (account.username() == null) continue;
+                var key = key(account.username());
+                current.add(key);
+                this.accounts.put(key, account);
+            }
+            for (var entry : previous.entrySet())
+                if (!current.contains(entry.getKey())) this.accounts.remove(entry.getKey(), entry.getValue());
+        });
+        this.loading = refresh;
+        return refresh;
+    }
+
+    private boolean isRefreshing() {
+        var loading = this.loading;
+        return loading != null && !loading.isDone();
+    }
+
+    /**
+     * Adds or replaces an account, typically the account of a successful token request.
+     *
+     * @param account Account to add. Null or accounts without a username are ignored.
+     */
+    public void put(IAccount account) {
+        if (account != null && account.username() != null)
+            this.accounts.put(key(account.username()), account);
+    }
+
+    /**
+     * Removes the account with the given username, for example after MSAL stopped accepting its tokens.
+     *
+     * @param username Username of the account to remove.
+     */
+    public void remove(String username) {
+        if (username != null) this.accounts.remove(key(username));
+    }
+
+    /**
+     * Gets the number of indexed accounts.
+     *
+     * @return The number of accounts.
+     */
+    public int size() {
+        return this.accounts.size();
+    }
+}
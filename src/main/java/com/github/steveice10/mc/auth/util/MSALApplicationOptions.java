@@ -1,5 +1,7 @@
 package com.github.steveice10.mc.auth.util;
 
+import com.microsoft.aad.msal4j.ITokenCacheAccessAspect;
+
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -10,11 +12,15 @@ public class MSALApplicationOptions {
     private static final String DEFAULT_AUTHORITY = "https://login.microsoftonline.com/consumers/";
     private static final String XBOX_SIGNIN_SCOPE = "XboxLive.signin";
     private static final String XBOX_OFFLINE_SCOPE = XBOX_SIGNIN_SCOPE.concat(" offline_access");
+    /**
+     * Scopes used when neither custom scopes nor offline access are requested.
+     */
+    public static final Set<String> DEFAULT_SCOPES = Collections.singleton(XBOX_SIGNIN_SCOPE);
 
     public final String authority;
     public final boolean offlineAccess;
     public final Set<String> scopes;
-    public final MSALTokenPersistence tokenPersistence;
+    public final ITokenCacheAccessAspect tokenPersistence;
 
     public MSALApplicationOptions(Builder builder) {
         this.authority = builder.authority;
@@ -27,8 +33,12 @@ public class MSALApplicationOptions {
         // Default options
         private String authority = DEFAULT_AUTHORITY;
         private boolean offlineAccess = false;
-        private Set<String> scopes = Collections.singleton(XBOX_SIGNIN_SCOPE);
-        private MSALTokenPersistence tokenPersistence = new MSALTokenPersistence();
+        private Set<String> scopes = DEFAULT_SCOPES;
+        private ITokenCacheAccessAspect tokenPersistence;
+        /**
+         * Indicates that the user has provided their own persistence, or none, so that the default is not created
+         */
+        private boolean persistenceModified = false;
         /**
          * Indicates that the user has provided their own scopes and that we should disregard <code>offlineAccess</code>
          */
@@ -74,18 +84,27 @@ public class MSALApplicationOptions {
         /**
          * Set the token persistence to use for storing tokens. By default, this is a {@link MSALTokenPersistence} that
          * loads/saves tokens to/from a file. You can use this method to set a different persistence implementation,
-         * such as a database. If you want to disable token persistence, just pass <code>null</code> as the argument.
+         * such as a database or a {@link ShardedMSALTokenPersistence} for large numbers of accounts. If you want to
+         * disable token persistence, just pass <code>null</code> as the argument.
          */
-        public Builder persistence(MSALTokenPersistence persistence) {
+        public Builder persistence(ITokenCacheAccessAspect persistence) {
             this.tokenPersistence = persistence;
+            this.persistenceModified = true;
             return this;
         }
 
-        public MSALApplicationOptions build() {
+        /**
+         * @throws IOException If no persistence was set and the default token cache file cannot be read.
+         */
+        public MSALApplicationOptions build() throws IOException {
             // If the scopes were not modified, we can use the default set of scopes
             if (!this.scopesModified)
                 this.scopes = new HashSet<>(Arrays.asList((offlineAccess ? XBOX_OFFLINE_SCOPE : XBOX_SIGNIN_SCOPE).split(" ")));
 
+            // Only create the default persistence when it is actually used, it reads from disk
+            if (!this.persistenceModified)
+                this.tokenPersistence = new MSALTokenPersistence();
+
             return new MSALApplicationOptions(this);
         }
     }
@@ -1,17 +1,61 @@
 package com.github.steveice10.mc.auth.util;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.microsoft.aad.msal4j.ITokenCache;
 import com.microsoft.aad.msal4j.ITokenCacheAccessAspect;
 import com.microsoft.aad.msal4j.ITokenCacheAccessContext;
 
+import java.io.Closeable;
+import java.io.Flushable;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class MSALTokenPersistence implements ITokenCacheAccessAspect {
+/**
+ * Saves/loads the MSAL token cache to/from a file.
+ * <p>
+ * The cache is only deserialized into MSAL when the data it holds has actually changed (because another MSAL
+ * application wrote to it, or because the file was modified on disk), and only written back when MSAL reports that
+ * the cache changed. Writes happen on a background thread: bursts of changes are coalesced into a single write, and
+ * the file is replaced atomically so that readers never see a partially written cache.
+ * <p>
+ * Pending writes are flushed when the JVM exits. {@link #close()} flushes them right away and stops tracking the
+ * store for exit.
+ */
+public class MSALTokenPersistence implements ITokenCacheAccessAspect, Flushable, Closeable {
     private static final String DEFAULT_FILENAME = "msal_serialized_cache.json";
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "MSALTokenPersistenceWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final Path filepath;
+    /**
+     * Version of the cache data that each MSAL token cache last saw, so that unchanged data is not deserialized again.
+     */
+    private final Map<ITokenCache, Long> cacheVersions = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Object writeLock = new Object();
+
     private String msalTokenData;
+    private long dataVersion;
+    private long writtenVersion;
+    private boolean writeScheduled;
+    private boolean writing;
+    private FileTime fileModifiedTime;
+    private long fileSize = -1;
+    private volatile IOException lastWriteFailure;
 
     /**
      * @see <a href="https://docs.microsoft.com/en-us/azure/active-directory/develop/msal-java-token-cache-serialization">Custom token cache serialization in MSAL for Java</a>
@@ -25,26 +69,192 @@ public class MSALTokenPersistence implements ITokenCacheAccessAspect {
      */
     public MSALTokenPersistence(String filename) throws IOException {
         this.filepath = Paths.get(filename);
-        this.msalTokenData = (Files.exists(this.filepath)) ? new String(Files.readAllBytes(this.filepath)) : "";
+        this.msalTokenData = "";
+        this.reloadIfModified();
+
+        // Don't lose pending writes when the JVM exits
+        FlushOnExit.register(this);
     }
 
     @Override
     public void beforeCacheAccess(ITokenCacheAccessContext context) {
-        context.tokenCache().deserialize(this.msalTokenData);
+        String data;
+        long version;
+        synchronized (this) {
+            try {
+                this.reloadIfModified();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+
+            // Nothing to do if this cache already holds the current data
+            var cache = context.tokenCache();
+            if (Objects.equals(this.cacheVersions.get(cache), this.dataVersion)) return;
+
+            data = this.msalTokenData;
+            version = this.dataVersion;
+            this.cacheVersions.put(cache, version);
+        }
+
+        context.tokenCache().deserialize(data);
     }
 
     @Override
     public void afterCacheAccess(ITokenCacheAccessContext context) {
-        this.msalTokenData = context.tokenCache().serialize();
+        if (!context.hasCacheChanged()) return;
+
+        var data = context.tokenCache().serialize();
+        synchronized (this) {
+            this.msalTokenData = data;
+            this.cacheVersions.put(context.tokenCache(), ++this.dataVersion);
+
+            if (this.writeScheduled) return;
+            this.writeScheduled = true;
+        }
+
+        WRITER.execute(() -> {
+            try {
+                this.flush();
+            } catch (IOException ex) {
+                // Kept for getLastWriteFailure(); the data stays dirty, so the next change or flush retries the write
+            }
+        });
+    }
 
+    /**
+     * Writes any changes that have not been saved yet to disk, on the calling thread.
+     *
+     * @throws IOException If the cache file could not be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (this.writeLock) {
+            String data;
+            long version;
+            synchronized (this) {
+                this.writeScheduled = false;
+                if (this.writtenVersion == this.dataVersion) return;
+
+                data = this.msalTokenData;
+                version = this.dataVersion;
+                this.writing = true;
+            }
+
+            try {
+                writeAtomically(this.filepath, data);
+                this.lastWriteFailure = null;
+
+                synchronized (this) {
+                    this.writtenVersion = version;
+                    var attributes = Files.readAttributes(this.filepath, BasicFileAttributes.class);
+                    this.fileModifiedTime = attributes.lastModifiedTime();
+                    this.fileSize = attributes.size();
+                }
+            } catch (IOException ex) {
+                this.lastWriteFailure = ex;
+                throw ex;
+            } finally {
+                synchronized (this) {
+                    this.writing = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes any changes that have not been saved yet to disk, and stops flushing this store when the JVM exits.
+     *
+     * @throws IOException If the cache file could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        FlushOnExit.unregister(this);
+        this.flush();
+    }
+
+    /**
+     * Gets the exception thrown by the most recent background write, if it failed.
+     *
+     * @return The failure of the last write, or null if it succeeded.
+     */
+    @SuppressWarnings("unused")
+    public IOException getLastWriteFailure() {
+        return this.lastWriteFailure;
+    }
+
+    /**
+     * Writes the data to a temporary file next to the given file, then moves it over the file.
+     */
+    static void writeAtomically(Path filepath, String data) throws IOException {
+        var directory = filepath.toAbsolutePath().getParent();
+        var temp = Files.createTempFile(directory, filepath.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, data.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temp, filepath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, filepath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reloads the cache data if the file was changed on disk by someone else. Must hold the monitor of this object.
+     * <p>
+     * Changes that were not written yet are merged over the file's data and stay pending, so that they are not lost.
+     * Entries removed in memory but still present in the file come back.
+     */
+    private void reloadIfModified() throws IOException {
+        // Our own write is about to change the file, don't mistake it for an external change
+        if (this.writing) return;
+
+        BasicFileAttributes attributes;
         try {
-            // Create file if it doesn't exist
-            if (!Files.exists(this.filepath))
-                Files.createFile(this.filepath);
+            attributes = Files.readAttributes(this.filepath, BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            return;
+        }
+
+        if (attributes.lastModifiedTime().equals(this.fileModifiedTime) && attributes.size() == this.fileSize) return;
+
+        var data = new String(Files.readAllBytes(this.filepath), StandardCharsets.UTF_8);
+        this.fileModifiedTime = attributes.lastModifiedTime();
+        this.fileSize = attributes.size();
+
+        if (this.writtenVersion == this.dataVersion) {
+            this.msalTokenData = data;
+            this.writtenVersion = ++this.dataVersion;
+        } else {
+            this.msalTokenData = merge(data, this.msalTokenData);
+            this.dataVersion++;
+        }
+    }
+
+    /**
+     * Merges two serialized MSAL caches, the entries of the second replacing those of the first.
+     */
+    private static String merge(String base, String changes) {
+        JsonObject merged, changed;
+        try {
+            merged = JsonParser.parseString(base).getAsJsonObject();
+            changed = JsonParser.parseString(changes).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException ex) {
+            // Either side is not a cache MSAL wrote; keep what this process knows
+            return changes;
+        }
+
+        for (var section : changed.entrySet()) {
+            var mergedSection = merged.get(section.getKey());
+            if (!section.getValue().isJsonObject() || mergedSection == null || !mergedSection.isJsonObject()) {
+                merged.add(section.getKey(), section.getValue());
+                continue;
+            }
 
-            Files.write(this.filepath, this.msalTokenData.getBytes());
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
+            for (var entry : section.getValue().getAsJsonObject().entrySet())
+                mergedSection.getAsJsonObject().add(entry.getKey(), entry.getValue());
         }
+        return merged.toString();
     }
 }
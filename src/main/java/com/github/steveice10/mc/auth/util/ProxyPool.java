@@ -0,0 +1,372 @@
+package com.github.steveice10.mc.auth.util;
+
+import com.github.steveice10.mc.auth.exception.request.DeadlineExceededException;
+import com.github.steveice10.mc.auth.exception.request.RequestException;
+import com.github.steveice10.mc.auth.exception.request.RequestRejectedException;
+import com.github.steveice10.mc.auth.exception.request.ServiceUnavailableException;
+import com.github.steveice10.mc.auth.exception.request.TooManyRequestsException;
+import lombok.Getter;
+
+import java.net.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A set of outbound proxies that requests are spread over.
+ * <p>
+ * Each request is sent over a proxy chosen by the pool's {@link Selector}, among the proxies that are not ejected and
+ * still have room in their rate budget. A proxy is ejected as soon as it gets a 429 response, or after a number of
+ * consecutive failures, and re-admitted once its ejection time has passed. A re-admitted proxy is on probation until it
+ * succeeds, or for as long as it was last ejected for: failing during that window ejects it again right away, for
+ * twice as long, up to a maximum.
+ * <p>
+ * If every proxy is ejected, the one due back soonest is used anyway, within its rate budget, so that requests keep
+ * going out. A request waiting for a rate budget waits no longer than the current {@link Deadline} allows.
+ */
+public class ProxyPool {
+    @Getter private final Selector selector;
+    @Getter private final int failureThreshold;
+    @Getter private final Duration ejectionTime;
+    @Getter private final Duration maxEjectionTime;
+    private final List<Member> members;
+
+    private ProxyPool(Builder builder) {
+        this.selector = builder.selector;
+        this.failureThreshold = builder.failureThreshold;
+        this.ejectionTime = builder.ejectionTime;
+        this.maxEjectionTime = builder.maxEjectionTime;
+
+        var members = new ArrayList<Member>(builder.proxies.size());
+        for (int i = 0; i < builder.proxies.size(); i++)
+            members.add(new Member(builder.proxies.get(i), builder.rateLimiters.get(i)));
+        this.members = Collections.unmodifiableList(members);
+    }
+
+    /**
+     * Creates a selector that picks proxies in turn.
+     *
+     * @return A new round-robin selector.
+     */
+    public static Selector roundRobin() {
+        var next = new AtomicInteger();
+        return candidates -> candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+    }
+
+    /**
+     * Creates a selector that picks the proxy with the fewest requests in flight.
+     *
+     * @return A new least-in-flight selector.
+     */
+    public static Selector leastInFlight() {
+        return candidates -> {
+            Member best = null;
+            for (var candidate : candidates)
+                if (best == null || candidate.getInFlight() < best.getInFlight()) best = candidate;
+            return best;
+        };
+    }
+
+    /**
+     * Gets the proxies in the pool.
+     *
+     * @return The members of the pool.
+     */
+    public List<Member> getMembers() {
+        return this.members;
+    }
+
+    /**
+     * Runs a request over a proxy from the pool, and updates that proxy's health from the outcome.
+     *
+     * @param call Request to run.
+     * @param <T>  Result type of the request.
+     * @return The result of the request.
+     * @throws DeadlineExceededException If the current deadline passes while waiting for a rate budget.
+     * @throws RequestException          If the request fails, or the thread is interrupted while waiting for a rate
+     *                                   budget.
+     */
+    public <T> T call(ProxiedCall<T> call) throws RequestException {
+        return this.call(null, call);
+    }
+
+    /**
+     * Runs a request over a proxy from the pool other than the given one, for example to hedge a request over a
+     * different route than the original. The given proxy is still used if no other proxy is available.
+     *
+     * @param avoid Proxy not to use if possible, or null.
+     * @param call  Request to run.
+     * @param <T>   Result type of the request.
+     * @return The result of the request.
+     * @throws DeadlineExceededException If the current deadline passes while waiting for a rate budget.
+     * @throws RequestException          If the request fails, or the thread is interrupted while waiting for a rate
+     *                                   budget.
+     */
+    public <T> T call(Proxy avoid, ProxiedCall<T> call) throws RequestException {
+        var member = this.acquire(avoid);
+
+        member.inFlight.incrementAndGet();
+        try {
+            var result = call.call(member.proxy);
+            member.onSuccess();
+            return result;
+        } catch (TooManyRequestsException e) {
+            member.eject();
+            throw e;
+        } catch (ServiceUnavailableException e) {
+            // A proxy on probation gets no second chance
+            if (member.consecutiveFailures.incrementAndGet() >= this.failureThreshold || member.isOnProbation(System.nanoTime()))
+                member.eject();
+            throw e;
+        } finally {
+            member.inFlight.decrementAndGet();
+        }
+    }
+
+    private Member acquire(Proxy avoid) throws RequestException {
+        var now = System.nanoTime();
+        var candidates = new ArrayList<Member>(this.members.size());
+        Member soonest = null;
+        Member avoided = null;
+        for (var member : this.members) {
+            if (member.isEjected(now)) {
+                if (soonest == null || member.ejectedUntil.get() - soonest.ejectedUntil.get() < 0) soonest = member;
+            } else if (avoid != null && member.proxy.equals(avoid)) avoided = member;
+            else candidates.add(member);
+        }
+
+        if (candidates.isEmpty() && avoided != null) candidates.add(avoided);
+        if (candidates.isEmpty()) {
+            // Upstream is likely rate limiting every proxy right now, so the budget matters all the more
+            if (soonest.rateLimiter != null && !soonest.rateLimiter.tryAcquire()) awaitBudget(soonest);
+            return soonest;
+        }
+
+        // Prefer a proxy that has budget right now
+        var remaining = new ArrayList<>(candidates);
+        while (!remaining.isEmpty()) {
+            var member = this.selector.select(remaining);
+            if (member.rateLimiter == null || member.rateLimiter.tryAcquire()) return member;
+            remaining.remove(member);
+        }
+
+        // Every proxy is out of budget, wait for the one the selector would have picked
+        var member = this.selector.select(candidates);
+        awaitBudget(member);
+        return member;
+    }
+
+    /**
+     * Waits for a permit from a proxy's rate budget, for no longer than the current {@link Deadline} allows.
+     */
+    private static void awaitBudget(Member member) throws RequestException {
+        var deadline = Deadline.current();
+        try {
+            if (deadline == null) member.rateLimiter.acquire();
+            else if (!member.rateLimiter.tryAcquire(deadline.getRemaining()))
+                throw new DeadlineExceededException("Deadline exceeded while waiting for proxy rate budget.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestRejectedException("Interrupted while waiting for proxy rate budget.", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ProxyPool{members=" + this.members + "}";
+    }
+
+    /**
+     * Chooses which proxy a request is sent over.
+     */
+    @FunctionalInterface
+    public interface Selector {
+        /**
+         * Picks a proxy.
+         *
+         * @param candidates Proxies that may be picked, never empty.
+         * @return One of the candidates.
+         */
+        Member select(List<Member> candidates);
+    }
+
+    /**
+     * A request that is sent over a given proxy.
+     *
+     * @param <T> Result type of the request.
+     */
+    @FunctionalInterface
+    public interface ProxiedCall<T> {
+        T call(Proxy proxy) throws RequestException;
+    }
+
+    /**
+     * A proxy in the pool, along with its health.
+     */
+    public class Member {
+        @Getter private final Proxy proxy;
+        @Getter private final RateLimiter rateLimiter;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicLong ejectedUntil = new AtomicLong();
+        private volatile boolean ejected;
+        private volatile Duration lastEjectionTime = Duration.ZERO;
+
+        private Member(Proxy proxy, RateLimiter rateLimiter) {
+            this.proxy = proxy;
+            this.rateLimiter = rateLimiter;
+        }
+
+        /**
+         * Gets the number of requests currently in flight over this proxy.
+         *
+         * @return The number of in-flight requests.
+         */
+        public int getInFlight() {
+            return this.inFlight.get();
+        }
+
+        /**
+         * Gets the number of requests over this proxy that failed in a row.
+         *
+         * @return The number of consecutive failures.
+         */
+        public int getConsecutiveFailures() {
+            return this.consecutiveFailures.get();
+        }
+
+        /**
+         * Gets whether this proxy is currently ejected from the pool.
+         *
+         * @return Whether the proxy is ejected.
+         */
+        public boolean isEjected() {
+            return this.isEjected(System.nanoTime());
+        }
+
+        private boolean isEjected(long now) {
+            return this.ejected && this.ejectedUntil.get() - now > 0;
+        }
+
+        /**
+         * Whether this proxy was re-admitted recently enough that it has not proven itself again yet: it has not
+         * succeeded since, and has been back for less time than it was out.
+         */
+        private boolean isOnProbation(long now) {
+            if (!this.ejected) return false;
+
+            var readmittedFor = now - this.ejectedUntil.get();
+            return readmittedFor >= 0 && readmittedFor < this.lastEjectionTime.toNanos();
+        }
+
+        private synchronized void eject() {
+            var now = System.nanoTime();
+            if (this.isEjected(now)) return;
+
+            // Failing again soon after being re-admitted means the proxy has not recovered yet; after a long quiet
+            // spell it starts over from the initial ejection time
+            var time = this.isOnProbation(now) ? this.lastEjectionTime.multipliedBy(2) : ejectionTime;
+            if (time.compareTo(maxEjectionTime) > 0) time = maxEjectionTime;
+
+            this.lastEjectionTime = time;
+            this.ejectedUntil.set(now + time.toNanos());
+            this.ejected = true;
+            this.consecutiveFailures.set(0);
+        }
+
+        private void onSuccess() {
+            this.consecutiveFailures.set(0);
+            if (this.ejected && !this.isEjected(System.nanoTime())) {
+                synchronized (this) {
+                    this.ejected = false;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Member{proxy=" + this.proxy
+                    + ", inFlight=" + this.getInFlight()
+                    + ", consecutiveFailures=" + this.getConsecutiveFailures()
+                    + ", ejected=" + this.isEjected()
+                    + "}";
+        }
+    }
+
+    public static class Builder {
+        private final List<Proxy> proxies = new ArrayList<>();
+        private final List<RateLimiter> rateLimiters = new ArrayList<>();
+        private Selector selector = roundRobin();
+        private int failureThreshold = 3;
+        private Duration ejectionTime = Duration.ofSeconds(30);
+        private Duration maxEjectionTime = Duration.ofMinutes(5);
+
+        /**
+         * Add a proxy without a rate budget.
+         */
+        public Builder proxy(Proxy proxy) {
+            return this.proxy(proxy, null);
+        }
+
+        /**
+         * Add a proxy whose requests are kept within the given rate budget.
+         *
+         * @param rateLimiter Rate budget of the proxy, or null for none.
+         */
+        public Builder proxy(Proxy proxy, RateLimiter rateLimiter) {
+            if (proxy == null) throw new IllegalArgumentException("Proxy cannot be null.");
+            this.proxies.add(proxy);
+            this.rateLimiters.add(rateLimiter);
+            return this;
+        }
+
+        /**
+         * Set how proxies are picked. Defaults to {@link #roundRobin()}.
+         */
+        public Builder selector(Selector selector) {
+            this.selector = selector;
+            return this;
+        }
+
+        /**
+         * Set how many requests over a proxy must fail in a row for it to be ejected. Defaults to 3.
+         */
+        public Builder failureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * Set how long a proxy is ejected for the first time. Defaults to 30 seconds.
+         */
+        public Builder ejectionTime(Duration ejectionTime) {
+            this.ejectionTime = ejectionTime;
+            return this;
+        }
+
+        /**
+         * Set the longest a proxy is ejected for after repeated ejections. Defaults to 5 minutes.
+         */
+        public Builder maxEjectionTime(Duration maxEjectionTime) {
+            this.maxEjectionTime = maxEjectionTime;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException If no proxy was added, or a setting is out of range.
+         */
+        public ProxyPool build() {
+            if (this.proxies.isEmpty()) throw new IllegalArgumentException("Proxy pool must have at least one proxy.");
+            if (this.selector == null) throw new IllegalArgumentException("Selector cannot be null.");
+            if (this.failureThreshold <= 0) throw new IllegalArgumentException("Failure threshold must be positive.");
+            if (this.ejectionTime == null || this.maxEjectionTime == null || this.ejectionTime.isNegative()
+                    || this.maxEjectionTime.compareTo(this.ejectionTime) < 0)
+                throw new IllegalArgumentException("Ejection times must not be negative, and the max at least the initial one.");
+
+            return new ProxyPool(this);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.steveice10.mc.auth.util;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket used to keep a stream of operations within a rate budget.
+ * <p>
+ * Permits are refilled continuously at {@link #getPermitsPerSecond()} up to {@link #getBurst()} stored permits.
+ */
+public class RateLimiter {
+    @Getter private final double permitsPerSecond;
+    @Getter private final int burst;
+    private final double nanosPerPermit;
+
+    private double storedPermits;
+    private long lastRefill;
+
+    /**
+     * Creates a new RateLimiter that allows bursts of a single permit.
+     *
+     * @param permitsPerSecond Number of permits handed out per second.
+     */
+    public RateLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, 1);
+    }
+
+    /**
+     * Creates a new RateLimiter.
+     *
+     * @param permitsPerSecond Number of permits handed out per second.
+     * @param burst            Maximum number of permits that may be stored while idle.
+     * @throws IllegalArgumentException If the rate or burst is not positive.
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) throw new IllegalArgumentException("Permits per second must be positive.");
+        if (burst <= 0) throw new IllegalArgumentException("Burst must be positive.");
+
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.nanosPerPermit = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        this.storedPermits = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a permit, waiting until one becomes available.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        long wait;
+        while ((wait = this.reserve()) > 0) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    /**
+     * Takes a permit, waiting at most the given time for one to become available. Gives up right away if no permit
+     * will be available in time.
+     *
+     * @param timeout Longest time to wait.
+     * @return Whether a permit was taken.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public boolean tryAcquire(Duration timeout) throws InterruptedException {
+        var end = System.nanoTime() + timeout.toNanos();
+        long wait;
+        while ((wait = this.reserve()) > 0) {
+            if (System.nanoTime() + wait - end > 0) return false;
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return true;
+    }
+
+    /**
+     * Takes a permit if one is available right now.
+     *
+     * @return Whether a permit was taken.
+     */
+    public boolean tryAcquire() {
+        return this.reserve() == 0;
+    }
+
+    /**
+     * Takes a permit if one is available, otherwise reports how long until the next one is.
+     *
+     * @return Zero if a permit was taken, otherwise the number of nanoseconds to wait before trying again.
+     */
+    private synchronized long reserve() {
+        var now = System.nanoTime();
+        this.storedPermits = Math.min(this.burst, this.storedPermits + (now - this.lastRefill) / this.nanosPerPermit);
+        this.lastRefill = now;
+
+        if (this.storedPermits >= 1) {
+            this.storedPermits--;
+            return 0;
+        }
+
+        return Math.max(1, (long) ((1 - this.storedPermits) * this.nanosPerPermit));
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimiter{permitsPerSecond=" + this.permitsPerSecond + ", burst=" + this.burst + "}";
+    }
+}
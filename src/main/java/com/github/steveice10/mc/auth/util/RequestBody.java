@@ -0,0 +1,289 @@
+package com.github.steveice10.mc.auth.util;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A reusable buffer that request bodies are encoded into.
+ * <p>
+ * JSON bodies are serialized and UTF-8 encoded straight into the buffer, and form bodies are percent-encoded into it
+ * field by field, so no intermediate string or byte array is built. Each thread keeps one buffer, which is handed out
+ * by {@link #acquire()} and returned by {@link #close()}; a buffer that grew beyond {@link #MAX_RETAINED_SIZE} for an
+ * unusually large body is dropped instead of being kept.
+ * <p>
+ * Instances must only be used by the thread that acquired them, and must not be used after being closed. Acquire
+ * them in the resource of a try-with-resources statement and encode inside its body, so that a body whose encoding
+ * fails is still returned.
+ */
+public class RequestBody implements AutoCloseable {
+    /**
+     * Largest buffer a thread keeps between requests, in bytes.
+     */
+    public static final int MAX_RETAINED_SIZE = 64 * 1024;
+    private static final int INITIAL_SIZE = 1024;
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final ThreadLocal<RequestBody> POOL = ThreadLocal.withInitial(RequestBody::new);
+
+    private byte[] buffer = new byte[INITIAL_SIZE];
+    private int length;
+    private char highSurrogate;
+    private boolean acquired;
+    private final Utf8Writer writer = new Utf8Writer();
+
+    private RequestBody() {
+    }
+
+    /**
+     * Gets an empty body buffer for the current thread.
+     * <p>
+     * If the thread's buffer is already in use, for example because a request is made while encoding another, a new
+     * buffer is returned instead.
+     *
+     * @return An empty buffer, to be closed once the body has been sent.
+     */
+    public static RequestBody acquire() {
+        var body = POOL.get();
+        if (body.acquired) body = new RequestBody();
+
+        body.acquired = true;
+        return body;
+    }
+
+    /**
+     * Serializes an object as JSON into this body.
+     *
+     * @param gson  Gson instance to serialize with.
+     * @param input Object to serialize.
+     * @return This body.
+     */
+    public RequestBody writeJson(Gson gson, Object input) {
+        gson.toJson(input, this.writer);
+        return this;
+    }
+
+    /**
+     * Encodes fields as <code>application/x-www-form-urlencoded</code> into this body, the same way
+     * {@link java.net.URLEncoder} does with UTF-8.
+     *
+     * @param input Fields to encode.
+     * @return This body.
+     */
+    public RequestBody writeForm(Map<String, String> input) {
+        var first = true;
+        for (var field : input.entrySet()) {
+            if (!first) this.write('&');
+            first = false;
+
+            this.writeFormComponent(field.getKey());
+            this.write('=');
+            this.writeFormComponent(field.getValue());
+        }
+        return this;
+    }
+
+    private void writeFormComponent(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '-' || c == '*' || c == '_') {
+                this.write(c);
+            } else if (c == ' ') {
+                this.write('+');
+            } else {
+                // Encode the character as UTF-8, then escape each of its bytes in place, back to front
+                var start = this.length;
+                this.writeUtf8(c);
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)))
+                    this.writeUtf8(value.charAt(++i));
+                this.flushSurrogate();
+
+                int end = this.length, escapedEnd = end + (end - start) * 2;
+                this.ensureCapacity(escapedEnd);
+                for (int read = end - 1, write = escapedEnd - 1; read >= start; read--) {
+                    var b = this.buffer[read];
+                    this.buffer[write--] = HEX_DIGITS[b & 0xF];
+                    this.buffer[write--] = HEX_DIGITS[(b >> 4) & 0xF];
+                    this.buffer[write--] = '%';
+                }
+                this.length = escapedEnd;
+            }
+        }
+    }
+
+    /**
+     * Writes a character as UTF-8. A high surrogate is held back until the character after it is written.
+     */
+    private void writeUtf8(char c) {
+        if (this.highSurrogate != 0) {
+            var high = this.highSurrogate;
+            this.highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                var codePoint = Character.toCodePoint(high, c);
+                this.ensureCapacity(this.length + 4);
+                this.buffer[this.length++] = (byte) (0xF0 | codePoint >> 18);
+                this.buffer[this.length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                this.buffer[this.length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                this.buffer[this.length++] = (byte) (0x80 | codePoint & 0x3F);
+                return;
+            }
+            // Unpaired surrogates are replaced, like String.getBytes does
+            this.write('?');
+        }
+
+        if (c < 0x80) {
+            this.write(c);
+        } else if (c < 0x800) {
+            this.ensureCapacity(this.length + 2);
+            this.buffer[this.length++] = (byte) (0xC0 | c >> 6);
+            this.buffer[this.length++] = (byte) (0x80 | c & 0x3F);
+        } else if (Character.isHighSurrogate(c)) {
+            this.highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            this.write('?');
+        } else {
+            this.ensureCapacity(this.length + 3);
+            this.buffer[this.length++] = (byte) (0xE0 | c >> 12);
+            this.buffer[this.length++] = (byte) (0x80 | c >> 6 & 0x3F);
+            this.buffer[this.length++] = (byte) (0x80 | c & 0x3F);
+        }
+    }
+
+    private void flushSurrogate() {
+        if (this.highSurrogate != 0) {
+            this.highSurrogate = 0;
+            this.write('?');
+        }
+    }
+
+    private void write(char ascii) {
+        this.ensureCapacity(this.length + 1);
+        this.buffer[this.length++] = (byte) ascii;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > this.buffer.length)
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(capacity, this.buffer.length * 2));
+    }
+
+    /**
+     * Gets the length of the encoded body.
+     *
+     * @return The number of bytes in this body.
+     */
+    public int getLength() {
+        this.flushSurrogate();
+        return this.length;
+    }
+
+    /**
+     * Writes the encoded body to a stream.
+     *
+     * @param out Stream to write to.
+     * @throws IOException If the stream cannot be written to.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        this.flushSurrogate();
+        out.write(this.buffer, 0, this.length);
+    }
+
+    /**
+     * Sends this body as the body of a request. The connection is set to stream exactly this many bytes, so that it
+     * does not keep its own copy of the body.
+     *
+     * @param connection Connection to send the body over, not yet connected.
+     * @throws IOException If the body cannot be sent.
+     */
+    public void send(HttpURLConnection connection) throws IOException {
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(this.getLength());
+        try (var out = connection.getOutputStream()) {
+            this.writeTo(out);
+        }
+    }
+
+    /**
+     * Decodes the body as text. Only meant for bodies whose text is needed anyway, such as for logging.
+     *
+     * @return The body as a string.
+     */
+    @Override
+    public String toString() {
+        this.flushSurrogate();
+        return new String(this.buffer, 0, this.length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Empties this body and returns it to its thread's pool.
+     */
+    @Override
+    public void close() {
+        this.length = 0;
+        this.highSurrogate = 0;
+        this.acquired = false;
+        if (this.buffer.length > MAX_RETAINED_SIZE) this.buffer = new byte[INITIAL_SIZE];
+    }
+
+    /**
+     * Encodes the characters written to it as UTF-8 into the buffer.
+     */
+    private class Utf8Writer extends Writer {
+        @Override
+        public void write(int c) {
+            RequestBody.this.writeUtf8((char) c);
+        }
+
+        @Override
+        public void write(char[] chars, int off, int len) {
+            RequestBody.this.ensureCapacity(RequestBody.this.length + len);
+            for (int i = off, end = off + len; i < end; i++) {
+                var c = chars[i];
+                // JSON is mostly ASCII, which needs neither capacity checks nor surrogate handling per character
+                if (c < 0x80 && RequestBody.this.highSurrogate == 0)
+                    RequestBody.this.buffer[RequestBody.this.length++] = (byte) c;
+                else {
+                    RequestBody.this.writeUtf8(c);
+                    RequestBody.this.ensureCapacity(RequestBody.this.length + end - i);
+                }
+            }
+        }
+
+        @Override
+        public void write(String string, int off, int len) {
+            RequestBody.this.ensureCapacity(RequestBody.this.length + len);
+            for (int i = off, end = off + len; i < end; i++) {
+                var c = string.charAt(i);
+                if (c < 0x80 && RequestBody.this.highSurrogate == 0)
+                    RequestBody.this.buffer[RequestBody.this.length++] = (byte) c;
+                else {
+                    RequestBody.this.writeUtf8(c);
+                    RequestBody.this.ensureCapacity(RequestBody.this.length + end - i);
+                }
+            }
+        }
+
+        @Override
+        public Writer append(CharSequence chars, int start, int end) {
+            for (int i = start; i < end; i++) RequestBody.this.writeUtf8(chars.charAt(i));
+            return this;
+        }
+
+        @Override
+        public Writer append(CharSequence chars) {
+            return this.append(chars, 0, chars.length());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.github.steveice10.mc.auth.util;
+
+import com.github.steveice10.mc.auth.exception.request.RequestException;
+
+/**
+ * A single outbound request, run by whatever wraps the request path of a service.
+ *
+ * @param <T> Result type of the request.
+ */
+@FunctionalInterface
+public interface RequestCall<T> {
+    T call() throws RequestException;
+}
@@ -0,0 +1,272 @@
+package com.github.steveice10.mc.auth.util;
+
+import com.github.steveice10.mc.auth.exception.request.RequestException;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends a duplicate of a slow request and uses whichever copy succeeds first.
+ * <p>
+ * The hedge goes out once the original has been running for longer than a percentile of the latencies seen so far
+ * (clamped between a minimum and maximum delay). Until enough latencies have been recorded, a fixed initial delay is
+ * used instead. The first copy to succeed wins and the other one is cancelled; only if both fail is the failure of
+ * the original thrown. Cancelling a copy interrupts its thread, but a request already blocked on the network may
+ * still run to completion in the background; its result is discarded.
+ * <p>
+ * Hedges are paid for from a budget that every request adds {@link Builder#budgetRatio(double)} to, so that hedging
+ * can add at most that fraction of extra requests, plus a small burst.
+ */
+public class RequestHedger {
+    private static final ExecutorService EXECUTOR;
+
+    static {
+        var threadId = new AtomicInteger();
+        EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "RequestHedgerThread-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Getter private final double percentile;
+    @Getter private final Duration initialDelay;
+    @Getter private final Duration minDelay;
+    @Getter private final Duration maxDelay;
+    @Getter private final int minSamples;
+    @Getter private final double budgetRatio;
+    @Getter private final int maxBudget;
+    /**
+     * Latencies of the original requests, used to pick the hedging delay. An original that was still running when its
+     * hedge won counts with the time it had been running by then, a lower bound of its latency.
+     */
+    @Getter private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    private double budget;
+
+    /**
+     * Creates a hedger with the default settings.
+     */
+    public RequestHedger() {
+        this(new Builder());
+    }
+
+    private RequestHedger(Builder builder) {
+        this.percentile = builder.percentile;
+        this.initialDelay = builder.initialDelay;
+        this.minDelay = builder.minDelay;
+        this.maxDelay = builder.maxDelay;
+        this.minSamples = builder.minSamples;
+        this.budgetRatio = builder.budgetRatio;
+        this.maxBudget = builder.maxBudget;
+        this.budget = builder.maxBudget;
+    }
+
+    /**
+     * Gets how long a request currently has to be running for a hedge to be sent.
+     *
+     * @return The hedging delay.
+     */
+    public Duration getDelay() {
+        if (this.latencies.getCount() < this.minSamples) return this.initialDelay;
+
+        var delay = Duration.ofNanos(this.latencies.getPercentile(this.percentile));
+        if (delay.compareTo(this.minDelay) < 0) return this.minDelay;
+        if (delay.compareTo(this.maxDelay) > 0) return this.maxDelay;
+        return delay;
+    }
+
+    /**
+     * Runs a request, sending a hedge if it is slow and the budget allows.
+     *
+     * @param original Request to run.
+     * @param hedge    Duplicate to send if the original is slow, for example over a different proxy.
+     * @param <T>      Result type of the request.
+     * @return The result of whichever copy succeeded first.
+     * @throws RequestException If every copy that was sent failed, or the thread was interrupted while waiting.
+     */
+    public <T> T call(RequestCall<T> original, RequestCall<T> hedge) throws RequestException {
+        synchronized (this) {
+            this.budget = Math.min(this.maxBudget, this.budget + this.budgetRatio);
+        }
+        this.requests.increment();
+
+        // The copies run on the hedging threads, which must honour the caller's deadline too
+        original = Deadline.propagate(original);
+        hedge = Deadline.propagate(hedge);
+
+        var completion = new ExecutorCompletionService<T>(EXECUTOR);
+        var futures = new ArrayList<Future<T>>(2);
+        try {
+            var start = System.nanoTime();
+            var originalFuture = completion.submit(original::call);
+            futures.add(originalFuture);
+
+            var done = completion.poll(this.getDelay().toNanos(), TimeUnit.NANOSECONDS);
+            if (done == null && this.tryTakeBudget()) {
+                this.hedges.increment();
+                futures.add(completion.submit(hedge::call));
+            }
+
+            RequestException failure = null;
+            var originalFailed = false;
+            for (int received = 0; received < futures.size(); received++) {
+                var future = done != null ? done : completion.take();
+                done = null;
+
+                try {
+                    var result = future.get();
+                    // Only winners are seen, so a hedge win still has to count for the slow original it beat: leaving
+                    // it out, or counting the hedge's own latency instead, would drag the percentile down over time
+                    if (!originalFailed) this.latencies.record(System.nanoTime() - start);
+                    if (future != originalFuture) this.hedgeWins.increment();
+                    return result;
+                } catch (ExecutionException e) {
+                    var cause = e.getCause() instanceof RequestException ? (RequestException) e.getCause() : new RequestException(e.getCause());
+                    // Prefer reporting why the original failed
+                    if (failure == null || future == originalFuture) failure = cause;
+                    if (future == originalFuture) originalFailed = true;
+                }
+            }
+
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException("Interrupted while waiting for a response.", e);
+        } finally {
+            for (var future : futures) future.cancel(true);
+        }
+    }
+
+    private synchronized boolean tryTakeBudget() {
+        if (this.budget < 1) return false;
+        this.budget--;
+        return true;
+    }
+
+    /**
+     * Gets the number of requests run so far.
+     *
+     * @return The number of requests.
+     */
+    public long getRequestCount() {
+        return this.requests.sum();
+    }
+
+    /**
+     * Gets the number of hedges sent so far.
+     *
+     * @return The number of hedges.
+     */
+    public long getHedgeCount() {
+        return this.hedges.sum();
+    }
+
+    /**
+     * Gets the number of requests that were answered by their hedge rather than the original.
+     *
+     * @return The number of hedges that won.
+     */
+    public long getHedgeWinCount() {
+        return this.hedgeWins.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "RequestHedger{delay=" + this.getDelay()
+                + ", requests=" + this.getRequestCount()
+                + ", hedges=" + this.getHedgeCount()
+                + ", hedgeWins=" + this.getHedgeWinCount()
+                + "}";
+    }
+
+    public static class Builder {
+        private double percentile = 95;
+        private Duration initialDelay = Duration.ofMillis(500);
+        private Duration minDelay = Duration.ofMillis(20);
+        private Duration maxDelay = Duration.ofSeconds(5);
+        private int minSamples = 50;
+        private double budgetRatio = 0.1;
+        private int maxBudget = 10;
+
+        /**
+         * Set the latency percentile after which a hedge is sent, between 0 and 100. Defaults to 95.
+         */
+        public Builder percentile(double percentile) {
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * Set the delay used until enough latencies have been recorded. Defaults to 500 milliseconds.
+         */
+        public Builder initialDelay(Duration initialDelay) {
+            this.initialDelay = initialDelay;
+            return this;
+        }
+
+        /**
+         * Set the shortest delay before a hedge is sent. Defaults to 20 milliseconds.
+         */
+        public Builder minDelay(Duration minDelay) {
+            this.minDelay = minDelay;
+            return this;
+        }
+
+        /**
+         * Set the longest delay before a hedge is sent. Defaults to 5 seconds.
+         */
+        public Builder maxDelay(Duration maxDelay) {
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * Set how many latencies must be recorded before the percentile is used. Defaults to 50.
+         */
+        public Builder minSamples(int minSamples) {
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * Set the fraction of requests that may be hedged in the long run. Defaults to 0.1.
+         */
+        public Builder budgetRatio(double budgetRatio) {
+            this.budgetRatio = budgetRatio;
+            return this;
+        }
+
+        /**
+         * Set how many hedges can be saved up for a burst of slow requests. Defaults to 10.
+         */
+        public Builder maxBudget(int maxBudget) {
+            this.maxBudget = maxBudget;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException If a setting is out of range.
+         */
+        public RequestHedger build() {
+            if (this.percentile < 0 || this.percentile > 100)
+                throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+            if (this.initialDelay == null || this.minDelay == null || this.maxDelay == null
+                    || this.initialDelay.isNegative() || this.minDelay.isNegative() || this.maxDelay.compareTo(this.minDelay) < 0)
+                throw new IllegalArgumentException("Delays must not be negative, and the max delay at least the min delay.");
+            if (this.minSamples < 0) throw new IllegalArgumentException("Min samples cannot be negative.");
+            if (this.budgetRatio < 0 || this.budgetRatio > 1)
+                throw new IllegalArgumentException("Budget ratio must be between 0 and 1.");
+            if (this.maxBudget < 0) throw new IllegalArgumentException("Max budget cannot be negative.");
+
+            return new RequestHedger(this);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.github.steveice10.mc.auth.util;
+
+import lombok.Getter;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hooks into the lifecycle of the HTTP requests made through {@link HTTP}, for example to propagate tracing headers,
+ * measure timings or sample payloads. Interceptors are registered per service with
+ * {@link com.github.steveice10.mc.auth.service.Service#addInterceptor(RequestInterceptor)}, or per endpoint with
+ * {@link RequestOptions#withInterceptor(RequestInterceptor)}.
+ * <p>
+ * Every hook receives the same {@link Request} for a given request, and all hooks run on the thread making the
+ * request. Exceptions thrown by a hook never fail the request: the remaining interceptors still run, and if the request
+ * fails anyway, the hooks' exceptions are attached to its error as suppressed exceptions. When no interceptor is
+ * registered, requests skip all of this.
+ */
+public interface RequestInterceptor {
+    /**
+     * Called once the request headers are set, right before the request is sent. Headers can still be added.
+     *
+     * @param request The request.
+     */
+    default void beforeSend(Request request) {
+    }
+
+    /**
+     * Called once the status and headers of the response have been received.
+     *
+     * @param request The request.
+     */
+    default void afterHeaders(Request request) {
+    }
+
+    /**
+     * Called once the response body has been read and checked for errors, when the request succeeded.
+     *
+     * @param request The request.
+     */
+    default void afterBody(Request request) {
+    }
+
+    /**
+     * Called when the request failed, whether or not a response was received.
+     *
+     * @param request The request.
+     * @param error   The exception the request failed with.
+     */
+    default void onError(Request request, Throwable error) {
+    }
+
+    /**
+     * A request going through the interceptors.
+     */
+    class Request {
+        @Getter private final URI uri;
+        @Getter private final String method;
+        /**
+         * When the request started, as given by {@link System#nanoTime()}.
+         */
+        @Getter private final long startNanos = System.nanoTime();
+        private RequestBody body;
+        private HttpURLConnection connection;
+        /**
+         * HTTP status of the response, or -1 while none has been received.
+         */
+        @Getter private int status = -1;
+        private Object response;
+        private Map<Object, Object> attributes;
+
+        Request(URI uri, String method, RequestBody body) {
+            this.uri = uri;
+            this.method = method;
+            this.body = body;
+        }
+
+        void setConnection(HttpURLConnection connection) {
+            this.connection = connection;
+        }
+
+        void setStatus(int status) {
+            this.status = status;
+        }
+
+        void setResponse(Object response) {
+            this.response = response;
+        }
+
+        void releaseBody() {
+            this.body = null;
+        }
+
+        /**
+         * Sets a request header. Only has an effect in {@link #beforeSend(Request)}.
+         *
+         * @param name  Name of the header.
+         * @param value Value of the header.
+         * @throws IllegalStateException If the request was already sent.
+         */
+        public void setHeader(String name, String value) {
+            if (this.connection == null) throw new IllegalStateException("Request has no connection yet.");
+            this.connection.setRequestProperty(name, value);
+        }
+
+        /**
+         * Gets a response header. Only available from {@link #afterHeaders(Request)} on.
+         *
+         * @param name Name of the header.
+         * @return The value of the header, or null if the response has no such header or was not received yet.
+         */
+        public String getResponseHeader(String name) {
+            return this.status >= 0 ? this.connection.getHeaderField(name) : null;
+        }
+
+        /**
+         * Gets the request body as text. This decodes the body, so it is best only called for sampled requests.
+         * <p>
+         * Only available while the hooks run: the body is encoded in a buffer that later requests on the same thread
+         * reuse. An interceptor that needs the body afterwards must keep the string returned here.
+         *
+         * @return The request body, or null for requests without a body or once the request has ended.
+         */
+        public String getRequestBody() {
+            return this.body != null ? this.body.toString() : null;
+        }
+
+        /**
+         * Gets the response body as text. Only available in {@link #afterBody(Request)}. This serializes the parsed
+         * body again, so it is best only called for sampled requests.
+         *
+         * @return The response body, or null if there is none.
+         */
+        public String getResponseBody() {
+            return this.response != null ? this.response.toString() : null;
+        }
+
+        /**
+         * Gets a value an interceptor attached to this request.
+         *
+         * @param key Key of the value.
+         * @return The value, or null if none is attached.
+         */
+        public Object getAttribute(Object key) {
+            return this.attributes != null ? this.attributes.get(key) : null;
+        }
+
+        /**
+         * Attaches a value to this request, for example to carry a span from {@link #beforeSend(Request)} to
+         * {@link #afterBody(Request)}.
+         *
+         * @param key   Key of the value.
+         * @param value Value to attach.
+         */
+        public void setAttribute(Object key, Object value) {
+            if (this.attributes == null) this.attributes = new HashMap<>();
+            this.attributes.put(key, value);
+        }
+
+        @Override
+        public String toString() {
+            return "Request{method=" + this.method + ", uri=" + this.uri + ", status=" + this.status + "}";
+        }
+    }
+}
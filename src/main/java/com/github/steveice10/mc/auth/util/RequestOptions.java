@@ -0,0 +1,138 @@
+package com.github.steveice10.mc.auth.util;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Options applied to individual HTTP requests.
+ * <p>
+ * Instances are immutable; use the <code>with</code> methods to derive modified options.
+ */
+@Getter
+public class RequestOptions {
+    /**
+     * The options used when nothing else is configured: 15 second connect and read timeouts.
+     */
+    public static final RequestOptions DEFAULT = new RequestOptions(Duration.ofSeconds(15), Duration.ofSeconds(15));
+
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    /**
+     * Cache GET responses are kept in and revalidated against, or null to always download them.
+     */
+    private final HttpResponseCache responseCache;
+    /**
+     * Interceptors that every request is passed through, in order.
+     */
+    private final List<RequestInterceptor> interceptors;
+
+    /**
+     * Creates new request options, without a response cache.
+     *
+     * @param connectTimeout How long to wait for a connection to be established. Zero waits forever.
+     * @param readTimeout    How long to wait for data while reading the response. Zero waits forever.
+     * @throws IllegalArgumentException If a timeout is null or negative.
+     */
+    public RequestOptions(Duration connectTimeout, Duration readTimeout) {
+        this(connectTimeout, readTimeout, null);
+    }
+
+    /**
+     * Creates new request options.
+     *
+     * @param connectTimeout How long to wait for a connection to be established. Zero waits forever.
+     * @param readTimeout    How long to wait for data while reading the response. Zero waits forever.
+     * @param responseCache  Cache for GET responses, or null for none.
+     * @throws IllegalArgumentException If a timeout is null or negative.
+     */
+    public RequestOptions(Duration connectTimeout, Duration readTimeout, HttpResponseCache responseCache) {
+        this(connectTimeout, readTimeout, responseCache, Collections.emptyList());
+    }
+
+    private RequestOptions(Duration connectTimeout, Duration readTimeout, HttpResponseCache responseCache, List<RequestInterceptor> interceptors) {
+        if (connectTimeout == null || connectTimeout.isNegative())
+            throw new IllegalArgumentException("Connect timeout cannot be null or negative.");
+        if (readTimeout == null || readTimeout.isNegative())
+            throw new IllegalArgumentException("Read timeout cannot be null or negative.");
+
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.responseCache = responseCache;
+        this.interceptors = interceptors;
+    }
+
+    /**
+     * Creates a copy of these options with a different connect timeout.
+     *
+     * @param connectTimeout Connect timeout to use.
+     * @return The new options.
+     */
+    public RequestOptions withConnectTimeout(Duration connectTimeout) {
+        return new RequestOptions(connectTimeout, this.readTimeout, this.responseCache, this.interceptors);
+    }
+
+    /**
+     * Creates a copy of these options with a different read timeout.
+     *
+     * @param readTimeout Read timeout to use.
+     * @return The new options.
+     */
+    public RequestOptions withReadTimeout(Duration readTimeout) {
+        return new RequestOptions(this.connectTimeout, readTimeout, this.responseCache, this.interceptors);
+    }
+
+    /**
+     * Creates a copy of these options with a different response cache.
+     * The same cache can be shared by several endpoints and services.
+     *
+     * @param responseCache Cache to use, or null for none.
+     * @return The new options.
+     */
+    public RequestOptions withResponseCache(HttpResponseCache responseCache) {
+        return new RequestOptions(this.connectTimeout, this.readTimeout, responseCache, this.interceptors);
+    }
+
+    /**
+     * Creates a copy of these options with an interceptor added after the ones already set.
+     *
+     * @param interceptor Interceptor to add.
+     * @return The new options.
+     * @throws IllegalArgumentException If the interceptor is null.
+     */
+    public RequestOptions withInterceptor(RequestInterceptor interceptor) {
+        if (interceptor == null) throw new IllegalArgumentException("Interceptor cannot be null.");
+        return this.withInterceptors(Collections.singletonList(interceptor));
+    }
+
+    /**
+     * Creates a copy of these options with interceptors added after the ones already set.
+     *
+     * @param interceptors Interceptors to add.
+     * @return The new options, or these options if there are no interceptors to add.
+     * @throws IllegalArgumentException If an interceptor is null.
+     */
+    public RequestOptions withInterceptors(List<RequestInterceptor> interceptors) {
+        if (interceptors.isEmpty()) return this;
+
+        var combined = new ArrayList<RequestInterceptor>(this.interceptors.size() + interceptors.size());
+        combined.addAll(this.interceptors);
+        for (var interceptor : interceptors) {
+            if (interceptor == null) throw new IllegalArgumentException("Interceptor cannot be null.");
+            combined.add(interceptor);
+        }
+        return new RequestOptions(this.connectTimeout, this.readTimeout, this.responseCache, Collections.unmodifiableList(combined));
+    }
+
+    @Override
+    public String toString() {
+        return "RequestOptions{connectTimeout=" + this.connectTimeout
+                + ", readTimeout=" + this.readTimeout
+                + ", responseCache=" + this.responseCache
+                + ", interceptors=" + this.interceptors
+                + "}";
+    }
+}
@@ -0,0 +1,137 @@
+package com.github.steveice10.mc.auth.util;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import javax.crypto.SecretKey;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+
+/**
+ * Computes Minecraft server ID hashes for a single server public key.
+ * <p>
+ * The hash is the SHA-1 digest of the server ID string, the shared secret and the encoded public key, formatted as a
+ * signed (two's complement) hexadecimal number, the way <code>new BigInteger(digest).toString(16)</code> does.
+ * The public key is encoded once when the hasher is created, each thread reuses its own digest and buffers, and the
+ * hex string is written directly from the digest bytes, so the only allocation per hash is the resulting string.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public class ServerIdHasher {
+    private static final String ALGORITHM = "SHA-1";
+    private static final int HASH_LENGTH = 20;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    @Getter private final PublicKey publicKey;
+    private final byte[] encodedPublicKey;
+
+    /**
+     * Creates a hasher for the given server public key.
+     *
+     * @param publicKey Public key of the server.
+     */
+    public ServerIdHasher(@NonNull PublicKey publicKey) {
+        this.publicKey = publicKey;
+        this.encodedPublicKey = publicKey.getEncoded();
+    }
+
+    /**
+     * Computes the server ID hash for the given server ID string and shared secret.
+     *
+     * @param base      Server ID string sent by the server. It is encoded as ISO-8859-1, characters outside of it
+     *                  becoming <code>?</code>.
+     * @param secretKey Shared secret of the connection.
+     * @return The server ID hash.
+     * @throws IllegalArgumentException If the secret key has no encoded form.
+     */
+    public String getServerId(@NonNull String base, @NonNull SecretKey secretKey) {
+        var secret = secretKey.getEncoded();
+        if (secret == null) throw new IllegalArgumentException("Secret key has no encoded form.");
+
+        var state = STATE.get();
+        var digest = state.digest;
+        // Don't let a hash that failed halfway leak into this one
+        digest.reset();
+
+        // Encode as ISO-8859-1 on the fly, replacing unmappable characters like String.getBytes does
+        for (int i = 0; i < base.length(); i++) {
+            var c = base.charAt(i);
+            if (c <= 0xFF) {
+                digest.update((byte) c);
+            } else {
+                // A surrogate pair is a single unmappable character
+                if (Character.isHighSurrogate(c) && i + 1 < base.length() && Character.isLowSurrogate(base.charAt(i + 1))) i++;
+                digest.update((byte) '?');
+            }
+        }
+        digest.update(secret);
+        digest.update(this.encodedPublicKey);
+
+        try {
+            digest.digest(state.hash, 0, HASH_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException("Server ID hash has an unexpected length.", e);
+        }
+
+        return toSignedHex(state.hash, state.hex);
+    }
+
+    /**
+     * Formats a big-endian two's complement number as signed hexadecimal without leading zeros, matching
+     * <code>new BigInteger(bytes).toString(16)</code>. The bytes are used as scratch space and overwritten.
+     */
+    static String toSignedHex(byte[] bytes, char[] hex) {
+        boolean negative = bytes[0] < 0;
+        if (negative) {
+            // Negate in place: invert every byte, then add one starting from the least significant byte
+            boolean carry = true;
+            for (int i = bytes.length - 1; i >= 0; i--) {
+                int value = ~bytes[i] & 0xFF;
+                if (carry) {
+                    value++;
+                    carry = value > 0xFF;
+                }
+                bytes[i] = (byte) value;
+            }
+        }
+
+        int length = 0;
+        if (negative) hex[length++] = '-';
+
+        boolean leading = true;
+        for (var b : bytes) {
+            int high = (b >> 4) & 0xF, low = b & 0xF;
+            if (!leading || high != 0) {
+                hex[length++] = HEX_DIGITS[high];
+                leading = false;
+            }
+            if (!leading || low != 0) {
+                hex[length++] = HEX_DIGITS[low];
+                leading = false;
+            }
+        }
+
+        if (leading) hex[length++] = '0';
+        return new String(hex, 0, length);
+    }
+
+    /**
+     * Per-thread digest and scratch buffers.
+     */
+    private static class State {
+        private final MessageDigest digest;
+        private final byte[] hash = new byte[HASH_LENGTH];
+        private final char[] hex = new char[HASH_LENGTH * 2 + 1];
+
+        private State() {
+            try {
+                this.digest = MessageDigest.getInstance(ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Server ID hash algorithm unavailable.", e);
+            }
+        }
+    }
+}
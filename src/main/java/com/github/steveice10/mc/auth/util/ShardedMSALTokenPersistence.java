@@ -0,0 +1,386 @@
+package com.github.steveice10.mc.auth.util;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.microsoft.aad.msal4j.ITokenCache;
+import com.microsoft.aad.msal4j.ITokenCacheAccessAspect;
+import com.microsoft.aad.msal4j.ITokenCacheAccessContext;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves/loads the MSAL token cache to/from a directory, with one file per account.
+ * <p>
+ * Each account's entries (keyed by their <code>home_account_id</code>) live in their own shard file, and entries that
+ * do not belong to an account (such as app metadata) live in a shared shard. Shards are loaded lazily, the first time
+ * MSAL accesses the cache for their account, and only the shards whose entries changed are written back. Writes
+ * happen in the background and are coalesced per shard, so saving one account never waits on another.
+ * <p>
+ * Operations that are not tied to an account, such as listing all accounts or starting a new Device Code flow, load
+ * every shard in the directory once, and look at every shard when saving.
+ *
+ * @see MSALTokenPersistence
+ */
+public class ShardedMSALTokenPersistence implements ITokenCacheAccessAspect, Flushable, Closeable {
+    private static final String DEFAULT_DIRECTORY = "msal_token_cache";
+    private static final String SHARED_SHARD = "_shared";
+    private static final String SHARD_EXTENSION = ".json";
+    private static final String HOME_ACCOUNT_ID = "home_account_id";
+    /**
+     * The only section of an MSAL cache whose entries do not belong to an account.
+     */
+    private static final String APP_METADATA_SECTION = "AppMetadata";
+    private static final ExecutorService WRITERS;
+
+    static {
+        var threadId = new AtomicInteger();
+        WRITERS = Executors.newFixedThreadPool(2, runnable -> {
+            var thread = new Thread(runnable, "ShardedMSALTokenPersistenceWriter-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private final Path directory;
+    private final Map<String, Shard> shards = new ConcurrentHashMap<>();
+    /**
+     * Version of each shard that each MSAL token cache last saw, so that unchanged shards are not merged in again.
+     */
+    private final Map<ITokenCache, Map<String, Long>> cacheVersions = Collections.synchronizedMap(new WeakHashMap<>());
+    private volatile boolean directoryListed;
+
+    /**
+     * Creates a sharded token store in the default directory.
+     */
+    @SuppressWarnings("unused")
+    public ShardedMSALTokenPersistence() throws IOException {
+        this(DEFAULT_DIRECTORY);
+    }
+
+    /**
+     * Creates a sharded token store in the given directory, creating it if needed.
+     *
+     * @param directory Directory to keep the shard files in.
+     */
+    public ShardedMSALTokenPersistence(String directory) throws IOException {
+        this.directory = Files.createDirectories(Paths.get(directory));
+
+        // Don't lose pending writes when the JVM exits
+        FlushOnExit.register(this);
+    }
+
+    /**
+     * Gets the shard key of a home account ID, which doubles as its file name.
+     */
+    private static String shardKey(String homeAccountId) {
+        if (homeAccountId == null || homeAccountId.isEmpty()) return SHARED_SHARD;
+
+        var key = new StringBuilder(homeAccountId.length());
+        for (var c : homeAccountId.toCharArray())
+            key.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' ? c : '_');
+        return key.toString();
+    }
+
+    private static String shardKeyOf(JsonElement entry) {
+        if (!entry.isJsonObject()) return SHARED_SHARD;
+
+        var homeAccountId = entry.getAsJsonObject().get(HOME_ACCOUNT_ID);
+        return shardKey(homeAccountId != null && homeAccountId.isJsonPrimitive() ? homeAccountId.getAsString() : null);
+    }
+
+    /**
+     * Splits a serialized MSAL cache into the entries of each shard, keeping MSAL's section layout.
+     * <p>
+     * Given a home account ID, only the entries of that account and the shared entries are kept. MSAL keys the entries
+     * of an account by its home account ID followed by a dash, so every other entry is skipped without being parsed.
+     *
+     * @param data          Serialized cache.
+     * @param homeAccountId Account to keep the entries of, or null to keep every entry.
+     */
+    private static Map<String, JsonObject> split(String data, String homeAccountId) {
+        var split = new HashMap<String, JsonObject>();
+        if (data == null || data.isBlank()) return split;
+
+        var prefix = homeAccountId != null ? homeAccountId.toLowerCase(Locale.ROOT) + "-" : null;
+        var accountKey = homeAccountId != null ? shardKey(homeAccountId) : null;
+        try (var reader = new JsonReader(new StringReader(data))) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) return split;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                var section = reader.nextName();
+                if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    var name = reader.nextName();
+                    if (prefix != null && !section.equals(APP_METADATA_SECTION) && !name.toLowerCase(Locale.ROOT).startsWith(prefix)) {
+                        reader.skipValue();
+                        continue;
+                    }
+
+                    var entry = JsonParser.parseReader(reader);
+                    var key = shardKeyOf(entry);
+                    if (accountKey != null && !key.equals(accountKey) && !key.equals(SHARED_SHARD)) continue;
+
+                    var shard = split.computeIfAbsent(key, k -> new JsonObject());
+                    var shardSection = shard.getAsJsonObject(section);
+                    if (shardSection == null) shard.add(section, shardSection = new JsonObject());
+                    shardSection.add(name, entry);
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        } catch (IOException | JsonParseException | IllegalStateException ex) {
+            throw new UncheckedIOException(new IOException("MSAL token cache is malformed.", ex));
+        }
+        return split;
+    }
+
+    private static JsonObject parse(String data) {
+        if (data == null || data.isBlank()) return new JsonObject();
+
+        var element = JsonParser.parseString(data);
+        return element.isJsonObject() ? element.getAsJsonObject() : new JsonObject();
+    }
+
+    @Override
+    public void beforeCacheAccess(ITokenCacheAccessContext context) {
+        var cache = context.tokenCache();
+        var seen = this.cacheVersions.computeIfAbsent(cache, c -> new ConcurrentHashMap<>());
+
+        // Lazily load only the shards this access may need
+        var needed = new ArrayList<Shard>();
+        needed.add(this.shard(SHARED_SHARD));
+        if (context.account() != null) needed.add(this.shard(shardKey(context.account().homeAccountId())));
+        else needed.addAll(this.allShards());
+
+        var stale = new HashMap<String, JsonObject>();
+        for (var shard : needed) {
+            synchronized (shard) {
+                try {
+                    shard.load();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+
+                if (!Objects.equals(seen.get(shard.key), shard.version)) {
+                    // An empty shard the cache has never seen (e.g. a new account) has nothing to merge
+                    if (shard.content.size() > 0 || seen.containsKey(shard.key))
+                        stale.put(shard.key, shard.content.deepCopy());
+                    seen.put(shard.key, shard.version);
+                }
+            }
+        }
+
+        if (stale.isEmpty()) return;
+
+        // Replace the stale shards' entries in the cache, leaving every other account untouched
+        synchronized (cache) {
+            var merged = parse(cache.serialize());
+            for (var section : merged.entrySet())
+                if (section.getValue().isJsonObject())
+                    section.getValue().getAsJsonObject().entrySet().removeIf(entry -> stale.containsKey(shardKeyOf(entry.getValue())));
+
+            for (var shard : stale.values())
+                for (var section : shard.entrySet()) {
+                    var mergedSection = merged.getAsJsonObject(section.getKey());
+                    if (mergedSection == null) merged.add(section.getKey(), mergedSection = new JsonObject());
+                    for (var entry : section.getValue().getAsJsonObject().entrySet())
+                        mergedSection.add(entry.getKey(), entry.getValue());
+                }
+
+            cache.deserialize(merged.toString());
+        }
+    }
+
+    @Override
+    public void afterCacheAccess(ITokenCacheAccessContext context) {
+        if (!context.hasCacheChanged()) return;
+
+        var cache = context.tokenCache();
+        var seen = this.cacheVersions.computeIfAbsent(cache, c -> new ConcurrentHashMap<>());
+        var data = cache.serialize();
+
+        // An access for an account only changes that account's entries, and maybe the shared ones
+        var homeAccountId = context.account() != null ? context.account().homeAccountId() : null;
+        var split = homeAccountId != null && !homeAccountId.isEmpty() ? split(data, homeAccountId) : null;
+        if (split != null && split.containsKey(shardKey(homeAccountId))) {
+            if (seen.containsKey(SHARED_SHARD)) split.putIfAbsent(SHARED_SHARD, new JsonObject());
+        } else {
+            // Without an account, or once the account's entries are gone (e.g. it signed out), compare every shard
+            split = split(data, null);
+
+            // Shards this cache knows about but no longer has entries for were removed
+            for (var key : seen.keySet()) split.putIfAbsent(key, new JsonObject());
+        }
+
+        for (var entry : split.entrySet()) {
+            var shard = this.shard(entry.getKey());
+            boolean schedule;
+            synchronized (shard) {
+                if (shard.loaded && shard.content.equals(entry.getValue())) continue;
+
+                shard.content = entry.getValue();
+                shard.loaded = true;
+                seen.put(shard.key, ++shard.version);
+
+                schedule = !shard.writeScheduled;
+                shard.writeScheduled = true;
+            }
+
+            if (schedule)
+                WRITERS.execute(() -> {
+                    try {
+                        shard.flush();
+                    } catch (IOException ignored) {
+                        // The shard stays dirty, so the next change or flush retries the write
+                    }
+                });
+        }
+    }
+
+    /**
+     * Writes all shards with changes that have not been saved yet to disk, on the calling thread.
+     *
+     * @throws IOException If any shard could not be written. Every shard is attempted regardless.
+     */
+    @Override
+    public void flush() throws IOException {
+        IOException failure = null;
+        for (var shard : this.shards.values()) {
+            try {
+                shard.flush();
+            } catch (IOException ex) {
+                if (failure == null) failure = ex;
+                else failure.addSuppressed(ex);
+            }
+        }
+
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Writes all shards with changes that have not been saved yet to disk, and stops flushing this store when the JVM
+     * exits.
+     *
+     * @throws IOException If any shard could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        FlushOnExit.unregister(this);
+        this.flush();
+    }
+
+    /**
+     * Gets the number of shards that have been loaded into memory so far.
+     *
+     * @return The number of loaded shards.
+     */
+    @SuppressWarnings("unused")
+    public int getLoadedShardCount() {
+        var count = 0;
+        for (var shard : this.shards.values())
+            if (shard.loaded) count++;
+        return count;
+    }
+
+    private Shard shard(String key) {
+        return this.shards.computeIfAbsent(key, Shard::new);
+    }
+
+    private Collection<Shard> allShards() {
+        if (!this.directoryListed) {
+            synchronized (this) {
+                if (!this.directoryListed) {
+                    try (var files = Files.newDirectoryStream(this.directory, "*" + SHARD_EXTENSION)) {
+                        for (var file : files) {
+                            var name = file.getFileName().toString();
+                            this.shard(name.substring(0, name.length() - SHARD_EXTENSION.length()));
+                        }
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    this.directoryListed = true;
+                }
+            }
+        }
+
+        return this.shards.values();
+    }
+
+    private class Shard {
+        private final String key;
+        private final Path path;
+        private final Object writeLock = new Object();
+
+        private JsonObject content = new JsonObject();
+        private boolean loaded;
+        private long version;
+        private long writtenVersion;
+        private boolean writeScheduled;
+
+        private Shard(String key) {
+            this.key = key;
+            this.path = directory.resolve(key + SHARD_EXTENSION);
+        }
+
+        /**
+         * Reads the shard from disk the first time it is needed. Must hold the monitor of this shard.
+         */
+        private void load() throws IOException {
+            if (this.loaded) return;
+
+            try {
+                this.content = parse(new String(Files.readAllBytes(this.path), StandardCharsets.UTF_8));
+            } catch (NoSuchFileException ex) {
+                this.content = new JsonObject();
+            }
+
+            this.loaded = true;
+            this.writtenVersion = ++this.version;
+        }
+
+        private void flush() throws IOException {
+            synchronized (this.writeLock) {
+                String data;
+                long version;
+                synchronized (this) {
+                    this.writeScheduled = false;
+                    if (this.writtenVersion == this.version) return;
+
+                    data = this.content.size() > 0 ? this.content.toString() : null;
+                    version = this.version;
+                }
+
+                if (data != null) MSALTokenPersistence.writeAtomically(this.path, data);
+                else Files.deleteIfExists(this.path);
+
+                synchronized (this) {
+                    this.writtenVersion = version;
+                }
+            }
+        }
+    }
+}
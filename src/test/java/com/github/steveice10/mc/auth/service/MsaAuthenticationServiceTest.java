@@ -0,0 +1,58 @@
+package com.github.steveice10.mc.auth.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MsaAuthenticationServiceTest {
+    private static final String PPFT = "DcpyBjpIzG4jeR3Nh8ty!NP84tVbM5L*6oTRzKGMfBqPWxh5VnwXFeQk6cpF9G6t2oNf8Z4sa7uYyqLX0I3JbJw5zi0bLlTp8D2mCIJsIHWw2o3iFSAIxeR9Tt7m6Cc1ZLxP0*PZ0OOfY7YaBUhH1FRTK2dNKsiFmlZ6X5vFmbwXBFyKJYG*hO0L6eQ73zwF1RXP4iJrlKNqsoqGgZmvXcJ7hzAcSuV2ygh7aSz8Y0n0x8dYbJVxLH!QoiUyAT7G6ibWdN1PYCUj4w$$";
+    private static final String URL_POST = "https://login.live.com/ppsecure/post.srf?client_id=00000000402b5328&redirect_uri=https%3a%2f%2flogin.live.com%2foauth20_desktop.srf&response_type=code&scope=service%3a%3auser.auth.xboxlive.com%3a%3aMBI_SSL&display=touch&locale=en&contextid=5A7B1E0C2F4D6A8B&bk=1681234567&uaid=0f1e2d3c4b5a69788796a5b4c3d2e1f0&pid=15216";
+
+    private static InputStream loginPage() {
+        var page = MsaAuthenticationServiceTest.class.getResourceAsStream("/msa_login_page.html");
+        assertNotNull(page, "Missing login page fixture");
+        return page;
+    }
+
+    @Test
+    public void scansLoginPageFixture() throws IOException {
+        var fields = MsaAuthenticationService.scanLoginPage(loginPage());
+
+        assertEquals(PPFT, fields[0]);
+        assertEquals(URL_POST, fields[1]);
+    }
+
+    @Test
+    public void scansLoginPageDeliveredInTinyReads() throws IOException {
+        // Fields split across many reads must match the same as when read at once
+        var page = loginPage();
+        var fields = MsaAuthenticationService.scanLoginPage(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return page.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return page.read(b, off, Math.min(len, 7));
+            }
+        });
+
+        assertEquals(PPFT, fields[0]);
+        assertEquals(URL_POST, fields[1]);
+    }
+
+    @Test
+    public void reportsMissingFields() throws IOException {
+        var page = "<html><script>var ServerData = {urlPost:'" + URL_POST + "',sErrorCode:''};</script></html>";
+        var fields = MsaAuthenticationService.scanLoginPage(new ByteArrayInputStream(page.getBytes(StandardCharsets.UTF_8)));
+
+        assertNull(fields[0]);
+        assertEquals(URL_POST, fields[1]);
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.steveice10.mc.auth.util;
+
+import com.github.steveice10.mc.auth.exception.request.DeadlineExceededException;
+import com.github.steveice10.mc.auth.exception.request.RequestException;
+import com.github.steveice10.mc.auth.exception.request.RequestRejectedException;
+import com.github.steveice10.mc.auth.exception.request.ServiceUnavailableException;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveConcurrencyLimiterTest {
+    private static final URI URI_A = URI.create("https://api.example.com/profiles/069a79f444e94726a5befca90e38aaf5");
+
+    private static <T> T overloaded() throws RequestException {
+        throw new ServiceUnavailableException("Unavailable.");
+    }
+
+    @Test
+    public void foldsIdsIntoEndpointKeys() {
+        assertEquals("api.example.com/profiles/{id}", AdaptiveConcurrencyLimiter.endpointKey(URI_A));
+        assertEquals("api.example.com/profiles/{id}",
+                AdaptiveConcurrencyLimiter.endpointKey(URI.create("https://api.example.com/profiles/069a79f4-44e9-4726-a5be-fca90e38aaf5")));
+        assertEquals("api.example.com/profiles/Notch",
+                AdaptiveConcurrencyLimiter.endpointKey(URI.create("https://api.example.com/profiles/Notch")));
+    }
+
+    @Test
+    public void cutsLimitOncePerRoundTrip() throws Exception {
+        var limiter = new AdaptiveConcurrencyLimiter.Builder().initialLimit(10).backoffRatio(0.5).build();
+
+        // The outer request started before the inner one cut the limit, so it must not cut it again
+        assertThrows(ServiceUnavailableException.class, () -> limiter.call(URI_A, () -> {
+            assertThrows(ServiceUnavailableException.class, () -> limiter.call(URI_A, AdaptiveConcurrencyLimiterTest::overloaded));
+            assertEquals(5, limiter.getLimit(URI_A));
+            return overloaded();
+        }));
+        assertEquals(5, limiter.getLimit(URI_A));
+
+        // A request started after the cut is a new round trip
+        assertThrows(ServiceUnavailableException.class, () -> limiter.call(URI_A, AdaptiveConcurrencyLimiterTest::overloaded));
+        assertEquals(2, limiter.getLimit(URI_A));
+        assertEquals(0, limiter.getInFlight(URI_A));
+    }
+
+    @Test
+    public void neverCutsBelowMinLimit() {
+        var limiter = new AdaptiveConcurrencyLimiter.Builder().initialLimit(4).minLimit(3).backoffRatio(0.5).build();
+        for (int i = 0; i < 5; i++)
+            assertThrows(ServiceUnavailableException.class, () -> limiter.call(URI_A, AdaptiveConcurrencyLimiterTest::overloaded));
+        assertEquals(3, limiter.getLimit(URI_A));
+    }
+
+    @Test
+    public void growsLimitOnlyWhileSaturated() throws Exception {
+        // A huge tolerance keeps scheduling jitter from counting as congestion
+        var limiter = new AdaptiveConcurrencyLimiter.Builder().initialLimit(2).tolerance(1e9).build();
+
+        // With one request in flight, a limit of 2 is saturated: 2 -> 2.5 -> 2.9 -> 3.24, after which it no longer is
+        for (int i = 0; i < 20; i++) assertEquals("ok", limiter.call(URI_A, () -> "ok"));
+        assertEquals(3, limiter.getLimit(URI_A));
+    }
+
+    @Test
+    public void neverGrowsAboveMaxLimit() throws Exception {
+        var limiter = new AdaptiveConcurrencyLimiter.Builder().initialLimit(2).maxLimit(2).tolerance(1e9).build();
+        for (int i = 0; i < 20; i++) limiter.call(URI_A, () -> null);
+        assertEquals(2, limiter.getLimit(URI_A));
+    }
+
+    @Test
+    public void leavesLimitAloneWhenDeadlineCutsRequest() {
+        var limiter = new AdaptiveConcurrencyLimiter.Builder().initialLimit(4).build();
+        assertThrows(DeadlineExceededException.class, () -> limiter.call(URI_A, () -> {
+            throw new DeadlineExceededException("Deadline exceeded.");
+        }));
+        assertEquals(4, limiter.getLimit(URI_A));
+        assertEquals(0, limiter.getInFlight(URI_A));
+    }
+
+    @Test
+    public void rejectsAfterMaxWait() throws Exception {
+        var limiter = new AdaptiveConcurrencyLimiter.Builder().initialLimit(1).maxWait(Duration.ofMillis(50)).build();
+        limiter.call(URI_A, () -> {
+            assertEquals(1, limiter.getInFlight(URI_A));
+            assertThrows(RequestRejectedException.class, () -> limiter.call(URI_A, () -> null));
+            return null;
+        });
+        assertEquals(0, limiter.getInFlight(URI_A));
+    }
+
+    @Test
+    public void boundsSlotWaitByDeadline() throws Exception {
+        var limiter = new AdaptiveConcurrencyLimiter.Builder().initialLimit(1).maxWait(Duration.ofSeconds(30)).build();
+        limiter.call(URI_A, () -> {
+            var start = System.nanoTime();
+            assertThrows(DeadlineExceededException.class, () -> Deadline.after(Duration.ofMillis(50)).run(() -> limiter.call(URI_A, () -> null)));
+            assertTrue(System.nanoTime() - start < Duration.ofSeconds(10).toNanos());
+            return null;
+        });
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.steveice10.mc.auth.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EndpointSelectorTest {
+    private static final URI URI_A = URI.create("https://a.example.com");
+    private static final URI URI_B = URI.create("https://b.example.com");
+    private static final URI URI_C = URI.create("https://c.example.com");
+
+    private static void complete(EndpointSelector.Endpoint endpoint, long latencyMillis) {
+        endpoint.onStart();
+        endpoint.onSuccess(Duration.ofMillis(latencyMillis).toNanos());
+    }
+
+    private static void fail(EndpointSelector.Endpoint endpoint) {
+        endpoint.onStart();
+        endpoint.onFailure();
+    }
+
+    @Test
+    public void rejectsInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new EndpointSelector(List.of()));
+        assertThrows(IllegalArgumentException.class, () -> new EndpointSelector(List.of(URI_A), Duration.ofSeconds(-1)));
+    }
+
+    @Test
+    public void averagesLatency() {
+        var endpoint = new EndpointSelector(List.of(URI_A)).getEndpoints().get(0);
+        assertEquals(Duration.ZERO, endpoint.getAverageLatency());
+
+        complete(endpoint, 100);
+        assertEquals(Duration.ofMillis(100), endpoint.getAverageLatency());
+        complete(endpoint, 200);
+        assertEquals(Duration.ofMillis(130), endpoint.getAverageLatency());
+        assertEquals(0, endpoint.getInFlight());
+    }
+
+    @Test
+    public void picksCheaperOfTwo() {
+        var selector = new EndpointSelector(List.of(URI_A, URI_B));
+        var a = selector.getEndpoints().get(0);
+        var b = selector.getEndpoints().get(1);
+        complete(a, 200);
+        complete(b, 100);
+
+        for (int i = 0; i < 100; i++) assertEquals(List.of(b, a), selector.order());
+
+        // Requests in flight make an endpoint more expensive
+        b.onStart();
+        b.onStart();
+        for (int i = 0; i < 100; i++) assertEquals(List.of(a, b), selector.order());
+    }
+
+    @Test
+    public void neverPicksMostExpensiveFirst() {
+        var selector = new EndpointSelector(List.of(URI_A, URI_B, URI_C));
+        var a = selector.getEndpoints().get(0);
+        var b = selector.getEndpoints().get(1);
+        var c = selector.getEndpoints().get(2);
+        complete(a, 300);
+        complete(b, 100);
+        complete(c, 200);
+
+        var firsts = new HashSet<EndpointSelector.Endpoint>();
+        for (int i = 0; i < 1000; i++) {
+            var order = selector.order();
+            firsts.add(order.get(0));
+            // The fallbacks follow in order of cost
+            if (order.get(0) == b) assertEquals(List.of(b, c, a), order);
+            else assertEquals(List.of(c, b, a), order);
+        }
+        assertEquals(2, firsts.size());
+    }
+
+    @Test
+    public void movesFailedEndpointsLastForCooldown() throws Exception {
+        var selector = new EndpointSelector(List.of(URI_A, URI_B, URI_C), Duration.ofMillis(200));
+        var a = selector.getEndpoints().get(0);
+        var b = selector.getEndpoints().get(1);
+        var c = selector.getEndpoints().get(2);
+        complete(a, 100);
+        complete(b, 200);
+        complete(c, 300);
+
+        fail(a);
+        Thread.sleep(5);
+        fail(b);
+        assertFalse(a.isHealthy());
+        // Cooling endpoints are ordered by how soon they are due back
+        for (int i = 0; i < 100; i++) assertEquals(List.of(c, a, b), selector.order());
+
+        Thread.sleep(300);
+        assertTrue(a.isHealthy());
+        assertTrue(b.isHealthy());
+        assertEquals(3, selector.order().size());
+        assertNotEquals(c, selector.order().get(0));
+    }
+
+    @Test
+    public void ignoresCancelledRequests() {
+        var selector = new EndpointSelector(List.of(URI_A));
+        var a = selector.getEndpoints().get(0);
+        complete(a, 100);
+
+        a.onStart();
+        assertEquals(1, a.getInFlight());
+        a.onCancel();
+        assertEquals(0, a.getInFlight());
+        assertTrue(a.isHealthy());
+        assertEquals(Duration.ofMillis(100), a.getAverageLatency());
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.steveice10.mc.auth.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HTTPTest {
+    private static final Pattern FIRST = Pattern.compile("first='([^']*)'");
+    private static final Pattern SECOND = Pattern.compile("second='([^']*)'");
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void scanFindsFirstMatchOfEachPattern() throws IOException {
+        var found = HTTP.scan(stream("x second='b' first='a' first='c'"), 1024, 64, FIRST, SECOND);
+
+        assertArrayEquals(new String[]{"a", "b"}, found);
+    }
+
+    @Test
+    public void scanFindsMatchesOnLongSingleLine() throws IOException {
+        var text = "x".repeat(1024 * 1024) + "first='a'" + "y".repeat(100_000) + "second='b'";
+        var found = HTTP.scan(stream(text), text.length(), 64, FIRST, SECOND);
+
+        assertArrayEquals(new String[]{"a", "b"}, found);
+    }
+
+    @Test
+    public void scanWaitsForMatchesCutByChunkBoundary() throws IOException {
+        // Without the closing quote in sight, a match cut at the end of a chunk is not final yet
+        var text = "x".repeat(8190) + "first='abcdefgh'";
+        var found = HTTP.scan(stream(text), text.length(), 64, FIRST);
+
+        assertEquals("abcdefgh", found[0]);
+    }
+
+    @Test
+    public void scanStopsReadingOnceEverythingMatched() throws IOException {
+        var text = "first='a' second='b'" + "x".repeat(1024 * 1024);
+        var in = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+        HTTP.scan(in, text.length(), 64, FIRST, SECOND);
+
+        assertTrue(in.available() > 1000 * 1000, "Read past the matches");
+    }
+
+    @Test
+    public void scanReturnsNullForPatternsThatNeverMatch() throws IOException {
+        var found = HTTP.scan(stream("first='a'"), 1024, 64, FIRST, SECOND);
+
+        assertArrayEquals(new String[]{"a", null}, found);
+    }
+
+    @Test
+    public void scanRejectsOverlongResponses() {
+        assertThrows(IOException.class, () -> HTTP.scan(stream("x".repeat(10_000)), 1000, 64, FIRST));
+    }
+}
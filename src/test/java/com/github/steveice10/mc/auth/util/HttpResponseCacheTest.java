@@ -0,0 +1,171 @@
+package com.github.steveice10.mc.auth.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpResponseCacheTest {
+    private static final String ETAG = "\"v1\"";
+
+    private static HttpServer server;
+    /**
+     * Number of requests that reached the server, by path.
+     */
+    private static final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    private static class Value {
+        private int value;
+    }
+
+    @BeforeAll
+    public static void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/max-age", exchange -> respond(exchange, 200, "Cache-Control", "max-age=60"));
+        server.createContext("/short", exchange -> respond(exchange, 200, "Cache-Control", "max-age=1"));
+        server.createContext("/aged", exchange -> {
+            exchange.getResponseHeaders().set("Age", "60");
+            respond(exchange, 200, "Cache-Control", "max-age=60");
+        });
+        server.createContext("/no-store", exchange -> respond(exchange, 200, "Cache-Control", "no-store, max-age=60"));
+        server.createContext("/etag", exchange -> {
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            var ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            respond(exchange, ETAG.equals(ifNoneMatch) ? 304 : 200, "Cache-Control", "no-cache");
+        });
+        server.start();
+    }
+
+    @AfterAll
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String header, String value) throws IOException {
+        var count = requests.computeIfAbsent(exchange.getRequestURI().getPath(), path -> new AtomicInteger()).incrementAndGet();
+        exchange.getResponseHeaders().set(header, value);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if (status == 304) {
+            exchange.sendResponseHeaders(304, -1);
+        } else {
+            var body = ("{\"value\":" + count + "}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        }
+        exchange.close();
+    }
+
+    private static URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private static int get(HttpResponseCache cache, String path) throws Exception {
+        return get(cache, path, Collections.emptyMap());
+    }
+
+    private static int get(HttpResponseCache cache, String path, Map<String, String> headers) throws Exception {
+        var options = RequestOptions.DEFAULT.withResponseCache(cache);
+        return HTTP.makeRequest(Proxy.NO_PROXY, uri(path), null, Value.class, headers, options).value;
+    }
+
+    private static int requestCount(String path) {
+        var count = requests.get(path);
+        return count != null ? count.get() : 0;
+    }
+
+    @Test
+    public void servesFreshResponsesFromCache() throws Exception {
+        var cache = new HttpResponseCache(1024 * 1024);
+        assertEquals(1, get(cache, "/max-age"));
+        assertEquals(1, get(cache, "/max-age"));
+        assertEquals(1, get(cache, "/max-age"));
+
+        assertEquals(1, requestCount("/max-age"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void refetchesOnceMaxAgePassed() throws Exception {
+        var cache = new HttpResponseCache(1024 * 1024);
+        assertEquals(1, get(cache, "/short"));
+        assertEquals(1, get(cache, "/short"));
+
+        Thread.sleep(1100);
+        assertEquals(2, get(cache, "/short"));
+        assertEquals(2, requestCount("/short"));
+    }
+
+    @Test
+    public void subtractsAgeFromMaxAge() throws Exception {
+        var cache = new HttpResponseCache(1024 * 1024);
+        assertEquals(1, get(cache, "/aged"));
+        assertEquals(2, get(cache, "/aged"));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void neverStoresNoStoreResponses() throws Exception {
+        var cache = new HttpResponseCache(1024 * 1024);
+        assertEquals(1, get(cache, "/no-store"));
+        assertEquals(2, get(cache, "/no-store"));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void revalidatesWithETag() throws Exception {
+        var cache = new HttpResponseCache(1024 * 1024);
+        assertEquals(1, get(cache, "/etag"));
+
+        // Stale right away, so every use asks the server, which answers 304 and the first body is reused
+        assertEquals(1, get(cache, "/etag"));
+        assertEquals(1, get(cache, "/etag"));
+        assertEquals(3, requestCount("/etag"));
+        assertEquals(2, cache.getRevalidationCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void keysByRequestHeaders() throws Exception {
+        var cache = new HttpResponseCache(1024 * 1024);
+        var first = get(cache, "/max-age/headers", Collections.singletonMap("Authorization", "Bearer a"));
+        var second = get(cache, "/max-age/headers", Collections.singletonMap("Authorization", "Bearer b"));
+
+        assertNotEquals(first, second);
+        assertEquals(first, get(cache, "/max-age/headers", Collections.singletonMap("Authorization", "Bearer a")));
+        assertEquals(2, cache.getEntryCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        var probe = new HttpResponseCache(1024 * 1024);
+        get(probe, "/max-age/lru/1");
+        var entrySize = probe.getSize();
+
+        // Room for two entries, not three
+        var cache = new HttpResponseCache(entrySize * 5 / 2);
+        var one = get(cache, "/max-age/lru/1");
+        var two = get(cache, "/max-age/lru/2");
+        assertEquals(one, get(cache, "/max-age/lru/1"));
+        get(cache, "/max-age/lru/3");
+
+        assertEquals(2, cache.getEntryCount());
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+        // The first entry was used more recently than the second, so the second was evicted
+        assertEquals(one, get(cache, "/max-age/lru/1"));
+        assertNotEquals(two, get(cache, "/max-age/lru/2"));
+    }
+}
@@ -0,0 +1,155 @@
+package com.github.steveice10.mc.auth.util;
+
+import com.github.steveice10.mc.auth.exception.request.DeadlineExceededException;
+import com.github.steveice10.mc.auth.exception.request.RequestException;
+import com.github.steveice10.mc.auth.exception.request.ServiceUnavailableException;
+import com.github.steveice10.mc.auth.exception.request.TooManyRequestsException;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProxyPoolTest {
+    private static final Proxy PROXY_A = proxy("a");
+    private static final Proxy PROXY_B = proxy("b");
+
+    private static Proxy proxy(String host) {
+        return new Proxy(Proxy.Type.HTTP, InetSocketAddress.createUnresolved(host, 8080));
+    }
+
+    private static Proxy succeed(ProxyPool pool) throws RequestException {
+        return pool.call(proxy -> proxy);
+    }
+
+    private static void fail(ProxyPool pool, RequestException failure) {
+        assertThrows(failure.getClass(), () -> pool.call(proxy -> {
+            throw failure;
+        }));
+    }
+
+    private static ProxyPool.Member member(ProxyPool pool, Proxy proxy) {
+        return pool.getMembers().stream().filter(member -> member.getProxy().equals(proxy)).findFirst().orElseThrow();
+    }
+
+    @Test
+    public void spreadsRequestsRoundRobin() throws Exception {
+        var pool = new ProxyPool.Builder().proxy(PROXY_A).proxy(PROXY_B).build();
+        var counts = new HashMap<Proxy, Integer>();
+        for (int i = 0; i < 10; i++) counts.merge(succeed(pool), 1, Integer::sum);
+        assertEquals(Map.of(PROXY_A, 5, PROXY_B, 5), counts);
+    }
+
+    @Test
+    public void ejectsAfterConsecutiveFailures() throws Exception {
+        var pool = new ProxyPool.Builder().proxy(PROXY_A).failureThreshold(3).build();
+        var a = member(pool, PROXY_A);
+
+        fail(pool, new ServiceUnavailableException("Unavailable."));
+        fail(pool, new ServiceUnavailableException("Unavailable."));
+        assertEquals(PROXY_A, succeed(pool));
+        assertEquals(0, a.getConsecutiveFailures());
+
+        for (int i = 0; i < 3; i++) fail(pool, new ServiceUnavailableException("Unavailable."));
+        assertTrue(a.isEjected());
+    }
+
+    @Test
+    public void ejectsOnTooManyRequests() throws Exception {
+        var pool = new ProxyPool.Builder().proxy(PROXY_A).proxy(PROXY_B).build();
+        fail(pool, new TooManyRequestsException("Too many requests."));
+        assertTrue(member(pool, PROXY_A).isEjected());
+
+        for (int i = 0; i < 5; i++) assertEquals(PROXY_B, succeed(pool));
+    }
+
+    @Test
+    public void usesSoonestBackWhenAllEjected() throws Exception {
+        var pool = new ProxyPool.Builder().proxy(PROXY_A).proxy(PROXY_B).ejectionTime(Duration.ofMinutes(1)).build();
+        fail(pool, new TooManyRequestsException("Too many requests."));
+        Thread.sleep(5);
+        fail(pool, new TooManyRequestsException("Too many requests."));
+
+        assertTrue(member(pool, PROXY_A).isEjected());
+        assertTrue(member(pool, PROXY_B).isEjected());
+        assertEquals(PROXY_A, succeed(pool));
+    }
+
+    @Test
+    public void doublesEjectionTimeOnProbation() throws Exception {
+        var pool = new ProxyPool.Builder()
+                .proxy(PROXY_A)
+                .failureThreshold(3)
+                .ejectionTime(Duration.ofMillis(200))
+                .maxEjectionTime(Duration.ofMillis(400))
+                .build();
+        var a = member(pool, PROXY_A);
+
+        fail(pool, new TooManyRequestsException("Too many requests."));
+        assertTrue(a.isEjected());
+        Thread.sleep(300);
+        assertFalse(a.isEjected());
+
+        // A single failure while on probation ejects it again, for twice as long
+        fail(pool, new ServiceUnavailableException("Unavailable."));
+        assertTrue(a.isEjected());
+        Thread.sleep(250);
+        assertTrue(a.isEjected());
+        Thread.sleep(250);
+        assertFalse(a.isEjected());
+
+        // Doubling again is capped at the max ejection time
+        fail(pool, new ServiceUnavailableException("Unavailable."));
+        assertTrue(a.isEjected());
+        Thread.sleep(500);
+        assertFalse(a.isEjected());
+    }
+
+    @Test
+    public void endsProbationOnSuccess() throws Exception {
+        var pool = new ProxyPool.Builder().proxy(PROXY_A).failureThreshold(3).ejectionTime(Duration.ofMillis(100)).build();
+        var a = member(pool, PROXY_A);
+
+        fail(pool, new TooManyRequestsException("Too many requests."));
+        Thread.sleep(150);
+        assertEquals(PROXY_A, succeed(pool));
+
+        fail(pool, new ServiceUnavailableException("Unavailable."));
+        assertFalse(a.isEjected());
+    }
+
+    @Test
+    public void avoidsGivenProxyIfPossible() throws Exception {
+        var pool = new ProxyPool.Builder().proxy(PROXY_A).proxy(PROXY_B).build();
+        for (int i = 0; i < 5; i++) assertEquals(PROXY_B, pool.call(PROXY_A, proxy -> proxy));
+
+        // Once the other proxy is ejected, the avoided one is all that is left
+        assertThrows(TooManyRequestsException.class, () -> pool.call(PROXY_A, proxy -> {
+            throw new TooManyRequestsException("Too many requests.");
+        }));
+        assertEquals(PROXY_A, pool.call(PROXY_A, proxy -> proxy));
+    }
+
+    @Test
+    public void prefersProxiesWithBudget() throws Exception {
+        var pool = new ProxyPool.Builder().proxy(PROXY_A, new RateLimiter(0.01)).proxy(PROXY_B).build();
+        var counts = new HashMap<Proxy, Integer>();
+        for (int i = 0; i < 10; i++) counts.merge(succeed(pool), 1, Integer::sum);
+        assertEquals(Map.of(PROXY_A, 1, PROXY_B, 9), counts);
+    }
+
+    @Test
+    public void boundsBudgetWaitByDeadline() throws Exception {
+        var pool = new ProxyPool.Builder().proxy(PROXY_A, new RateLimiter(0.01)).build();
+        fail(pool, new TooManyRequestsException("Too many requests."));
+
+        // The only proxy is ejected and out of budget for the next 100 seconds
+        var start = System.nanoTime();
+        assertThrows(DeadlineExceededException.class, () -> Deadline.after(Duration.ofMillis(100)).run(() -> succeed(pool)));
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(10).toNanos());
+    }
+}
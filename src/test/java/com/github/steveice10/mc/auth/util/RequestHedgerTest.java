@@ -0,0 +1,135 @@
+package com.github.steveice10.mc.auth.util;
+
+import com.github.steveice10.mc.auth.exception.request.RequestException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestHedgerTest {
+    /**
+     * A request that hangs until the hedger cancels it.
+     */
+    private static <T> RequestCall<T> stuck(T result) {
+        return () -> {
+            try {
+                new CountDownLatch(1).await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return result;
+        };
+    }
+
+    private static <T> RequestCall<T> slow(long millis, T result) {
+        return () -> {
+            sleep(millis);
+            return result;
+        };
+    }
+
+    private static <T> RequestCall<T> failing(long millis, String message) {
+        return () -> {
+            sleep(millis);
+            throw new RequestException(message);
+        };
+    }
+
+    private static void sleep(long millis) throws RequestException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException(e);
+        }
+    }
+
+    @Test
+    public void doesNotHedgeFastRequests() throws Exception {
+        var hedger = new RequestHedger.Builder().initialDelay(Duration.ofSeconds(5)).build();
+        for (int i = 0; i < 10; i++) assertEquals("original", hedger.call(() -> "original", () -> "hedge"));
+
+        assertEquals(10, hedger.getRequestCount());
+        assertEquals(0, hedger.getHedgeCount());
+        assertEquals(10, hedger.getLatencies().getCount());
+    }
+
+    @Test
+    public void hedgesSlowRequests() throws Exception {
+        var hedger = new RequestHedger.Builder().initialDelay(Duration.ofMillis(20)).build();
+        assertEquals("hedge", hedger.call(stuck("original"), () -> "hedge"));
+
+        assertEquals(1, hedger.getHedgeCount());
+        assertEquals(1, hedger.getHedgeWinCount());
+        // The original is recorded with the time it had been running when the hedge won, not the hedge's own latency
+        assertEquals(1, hedger.getLatencies().getCount());
+        assertTrue(hedger.getLatencies().getMax() >= Duration.ofMillis(20).toNanos());
+    }
+
+    @Test
+    public void capsHedgesByBudget() throws Exception {
+        var hedger = new RequestHedger.Builder().initialDelay(Duration.ofMillis(10)).budgetRatio(0).maxBudget(2).build();
+        assertEquals("hedge", hedger.call(stuck("original"), () -> "hedge"));
+        assertEquals("hedge", hedger.call(stuck("original"), () -> "hedge"));
+
+        // Out of budget: the original has to be waited for
+        assertEquals("original", hedger.call(slow(50, "original"), () -> "hedge"));
+        assertEquals(2, hedger.getHedgeCount());
+    }
+
+    @Test
+    public void refillsBudgetPerRequest() throws Exception {
+        var hedger = new RequestHedger.Builder().initialDelay(Duration.ofMillis(10)).budgetRatio(0.5).maxBudget(1).build();
+        assertEquals("hedge", hedger.call(stuck("original"), () -> "hedge"));
+
+        // Half a hedge is earned by this request, not enough to hedge it
+        assertEquals("original", hedger.call(slow(50, "original"), () -> "hedge"));
+        // The other half is earned by this one
+        assertEquals("hedge", hedger.call(stuck("original"), () -> "hedge"));
+        assertEquals(2, hedger.getHedgeCount());
+    }
+
+    @Test
+    public void reportsOriginalFailureWhenBothFail() {
+        var hedger = new RequestHedger.Builder().initialDelay(Duration.ofMillis(10)).build();
+        var e = assertThrows(RequestException.class, () -> hedger.call(failing(100, "original"), failing(0, "hedge")));
+        assertEquals("original", e.getMessage());
+        assertEquals(1, hedger.getHedgeCount());
+    }
+
+    @Test
+    public void usesHedgeWhenOriginalFails() throws Exception {
+        var hedger = new RequestHedger.Builder().initialDelay(Duration.ofMillis(10)).build();
+        assertEquals("hedge", hedger.call(failing(50, "original"), slow(100, "hedge")));
+
+        // A failed original says nothing about how long requests take
+        assertEquals(0, hedger.getLatencies().getCount());
+    }
+
+    @Test
+    public void clampsPercentileDelay() {
+        var hedger = new RequestHedger.Builder()
+                .percentile(50)
+                .initialDelay(Duration.ofMillis(500))
+                .minDelay(Duration.ofMillis(20))
+                .maxDelay(Duration.ofSeconds(1))
+                .minSamples(10)
+                .build();
+
+        for (int i = 0; i < 9; i++) hedger.getLatencies().record(100, TimeUnit.MILLISECONDS);
+        assertEquals(Duration.ofMillis(500), hedger.getDelay());
+
+        hedger.getLatencies().record(100, TimeUnit.MILLISECONDS);
+        var delay = hedger.getDelay().toMillis();
+        assertTrue(delay >= 100 && delay <= 110, "delay " + delay);
+
+        for (int i = 0; i < 30; i++) hedger.getLatencies().record(1, TimeUnit.MILLISECONDS);
+        assertEquals(Duration.ofMillis(20), hedger.getDelay());
+
+        for (int i = 0; i < 100; i++) hedger.getLatencies().record(10, TimeUnit.SECONDS);
+        assertEquals(Duration.ofSeconds(1), hedger.getDelay());
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.steveice10.mc.auth.util;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerIdHasherTest {
+    private static PublicKey publicKey;
+
+    @BeforeAll
+    public static void generateKey() throws Exception {
+        var generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        publicKey = generator.generateKeyPair().getPublic();
+    }
+
+    private static String sha1Hex(String input) throws Exception {
+        var hash = MessageDigest.getInstance("SHA-1").digest(input.getBytes(StandardCharsets.ISO_8859_1));
+        return ServerIdHasher.toSignedHex(hash, new char[41]);
+    }
+
+    /**
+     * The way server IDs were computed before {@link ServerIdHasher}.
+     */
+    private static String reference(String base, SecretKey secretKey, PublicKey publicKey) throws Exception {
+        var digest = MessageDigest.getInstance("SHA-1");
+        digest.update(base.getBytes(StandardCharsets.ISO_8859_1));
+        digest.update(secretKey.getEncoded());
+        digest.update(publicKey.getEncoded());
+        return new BigInteger(digest.digest()).toString(16);
+    }
+
+    private static SecretKey secretKey(Random random) {
+        var bytes = new byte[16];
+        random.nextBytes(bytes);
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    @Test
+    public void formatsKnownVectors() throws Exception {
+        assertEquals("4ed1f46bbe04bc756bcb17c0c7ce3e4632f06a48", sha1Hex("Notch"));
+        assertEquals("-7c9d5b0044c130109a5d7b5fb5c317c02b4e28c1", sha1Hex("jeb_"));
+        assertEquals("88e16a1019277b15d58faf0541e11910eb756f6", sha1Hex("simon"));
+    }
+
+    @Test
+    public void formatsLikeBigInteger() {
+        var random = new Random(36);
+        var hex = new char[41];
+        for (int i = 0; i < 10_000; i++) {
+            var bytes = new byte[20];
+            random.nextBytes(bytes);
+            // Cover leading zero bytes and the extremes too
+            if (i % 7 == 0) bytes[0] = 0;
+            if (i % 11 == 0) bytes[1] = 0;
+            if (i == 1) Arrays.fill(bytes, (byte) 0);
+            if (i == 2) Arrays.fill(bytes, (byte) 0xFF);
+            if (i == 3) bytes = new byte[]{(byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+            var expected = new BigInteger(bytes).toString(16);
+            assertEquals(expected, ServerIdHasher.toSignedHex(bytes.clone(), hex));
+        }
+    }
+
+    @Test
+    public void matchesReferenceImplementation() throws Exception {
+        var hasher = new ServerIdHasher(publicKey);
+        var random = new Random(1);
+        for (var base : new String[]{"", "server", "-1a2b3c", "\u00e9\u00ff", "\u0100\u20ac", "\ud83d\ude00x", "\ud83dx\ude00"}) {
+            var secretKey = secretKey(random);
+            assertEquals(reference(base, secretKey, publicKey), hasher.getServerId(base, secretKey), base);
+        }
+    }
+
+    @Test
+    public void recoversFromFailedHash() throws Exception {
+        var hasher = new ServerIdHasher(publicKey);
+        var broken = new SecretKeySpec(new byte[16], "AES") {
+            @Override
+            public byte[] getEncoded() {
+                return null;
+            }
+        };
+        assertThrows(IllegalArgumentException.class, () -> hasher.getServerId("server", broken));
+
+        var secretKey = secretKey(new Random(2));
+        assertEquals(reference("server", secretKey, publicKey), hasher.getServerId("server", secretKey));
+    }
+}